@@ -40,6 +40,9 @@ create table if not exists queries (
   user_id text not null,
   idempotency_key text,
   sql text not null,
+  -- Values for the ? placeholders of a query template, as a JSON array
+  params jsonb,
+  format text not null default 'NDJSON',
   status text not null,
   created_at timestamptz not null,
   started_at timestamptz,
@@ -47,11 +50,42 @@ create table if not exists queries (
   error text,
   result_path text,
   rows_written bigint not null default 0,
-  bytes_written bigint not null default 0
+  bytes_written bigint not null default 0,
+  stored_bytes bigint not null default 0,
+  -- Planner estimate from EXPLAIN at submit
+  est_rows bigint,
+  est_cost double precision,
+  -- Last download of the result; the janitor evicts least recently read results first
+  last_read_at timestamptz,
+  -- Distributed dispatch: the node holding the job and until when its claim is valid
+  claimed_by text,
+  lease_until timestamptz,
+  -- Last status change; other nodes follow changes through it
+  updated_at timestamptz not null default now()
 );
 
+-- Columns added later, for databases created before them
+alter table queries add column if not exists stored_bytes bigint not null default 0;
+alter table queries add column if not exists format text not null default 'NDJSON';
+alter table queries add column if not exists est_rows bigint;
+alter table queries add column if not exists est_cost double precision;
+alter table queries add column if not exists claimed_by text;
+alter table queries add column if not exists lease_until timestamptz;
+alter table queries add column if not exists updated_at timestamptz not null default now();
+alter table queries add column if not exists params jsonb;
+alter table queries add column if not exists last_read_at timestamptz;
+
 create unique index if not exists queries_user_id_idem_idx
   on queries(user_id, idempotency_key)
   where idempotency_key is not null;
 
 create index if not exists queries_user_status_idx on queries(user_id, status);
+
+-- Stored results, for the result janitor's TTL and LRU scans
+create index if not exists queries_results_ended_idx on queries(ended_at) where status = 'SUCCEEDED';
+create index if not exists queries_results_read_idx
+  on queries((coalesce(last_read_at, ended_at))) where status = 'SUCCEEDED';
+
+create index if not exists queries_pending_idx on queries(created_at) where status = 'PENDING';
+
+create index if not exists queries_updated_at_idx on queries(updated_at);
@@ -0,0 +1,76 @@
+#!/usr/bin/env bash
+# Throughput benchmark for the Query Execution API.
+# Submits a burst of queries across several users against the seeded
+# orders table and reports total wall time and queries per second.
+# Run once per executionMode (platform / virtual) to compare, or with
+# BENCH_MODE=literal and BENCH_MODE=template to compare inlined values
+# against a query template with params (prepared statement reuse), or with
+# BENCH_FORMAT=ndjson / columnar / csv to compare the JDBC encoders against
+# the COPY-based CSV export.
+#
+# Assumes the service is running locally on :8080 with rateLimitPerMinute
+# and maxPendingPerUser raised above QUERIES / USERS, and readRateLimitPerMinute
+# high enough (or 0) for the status polling below.
+
+set -euo pipefail
+
+BASE="${BASE:-http://localhost:8080}"
+QUERIES="${BENCH_QUERIES:-200}"
+USERS="${BENCH_USERS:-4}"
+MODE="${BENCH_MODE:-literal}"
+FORMAT="${BENCH_FORMAT:-ndjson}"
+SQL="${BENCH_SQL:-select p.sku, sum(oi.qty) as units from orders o join order_items oi on oi.order_id = o.id join products p on p.id = oi.product_id where o.customer_id = %s group by p.sku}"
+
+CT="Content-Type: application/json"
+
+submit() {
+  local user="$1"; local i="$2"
+  # A distinct value per submission keeps the result cache out of the measurement
+  local value=$((i + 1)) body
+  if [[ "$MODE" == "template" ]]; then
+    # The same SQL text every time, so worker connections reuse the prepared statement
+    body="{\"sql\":\"$(printf "$SQL" "?")\",\"params\":[$value],\"format\":\"$FORMAT\"}"
+  else
+    body="{\"sql\":\"$(printf "$SQL" "$value")\",\"format\":\"$FORMAT\"}"
+  fi
+  curl -sS -X POST "$BASE/queries" \
+    -H "Authorization: Bearer user:bench$user" -H "$CT" \
+    -d "$body" \
+    | sed -n 's/.*"id":"\([^"]*\)".*/\1/p'
+}
+
+status_of() {
+  local user="$1"; local id="$2"
+  curl -sS "$BASE/queries/$id" -H "Authorization: Bearer user:bench$user" \
+    | sed -n 's/.*"status":"\([^"]*\)".*/\1/p'
+}
+
+start=$(date +%s.%N)
+
+ids=()
+for ((i = 0; i < QUERIES; i++)); do
+  u=$((i % USERS))
+  id=$(submit "$u" "$i")
+  [[ -n "$id" ]] && ids+=("$u:$id")
+done
+
+failed=0
+for entry in "${ids[@]}"; do
+  u="${entry%%:*}"; id="${entry#*:}"
+  while true; do
+    s=$(status_of "$u" "$id")
+    case "$s" in
+      SUCCEEDED) break ;;
+      FAILED|CANCELLED) failed=$((failed + 1)); break ;;
+      *) sleep 0.05 ;;
+    esac
+  done
+done
+
+end=$(date +%s.%N)
+elapsed=$(echo "$end - $start" | bc -l)
+
+echo "submitted: ${#ids[@]} / $QUERIES (users: $USERS, mode: $MODE, format: $FORMAT)"
+echo "failed:    $failed"
+printf "elapsed:   %.2fs\n" "$elapsed"
+printf "qps:       %.1f\n" "$(echo "${#ids[@]} / $elapsed" | bc -l)"
@@ -2,56 +2,178 @@ package org.example;
 
 import io.dropwizard.Application;
 import io.dropwizard.setup.Environment;
+import org.example.repo.ChangeFeed;
+import org.example.repo.Pools;
 import org.example.repo.QueryRepo;
+import org.example.repo.RowCache;
+import org.example.repo.TransitionWriter;
+import org.example.service.AdmissionLedger;
+import org.example.service.ClusterDispatcher;
+import org.example.service.CostEstimator;
+import org.example.service.FairScheduler;
 import org.example.service.QueryService;
 import org.example.service.RateLimiter;
+import org.example.service.ResultCache;
+import org.example.service.ResultJanitor;
+import org.example.service.RuntimeStats;
 import org.example.service.SqlGuard;
+import org.example.service.StatusBus;
 import org.example.auth.AuthFilter;
 import org.example.errors.GlobalExceptionMapper;
 import org.example.resources.PingResource;
+import org.example.resources.QueryBatchResource;
 import org.example.resources.QueryResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.net.InetAddress;
+import java.util.UUID;
 
 public class GreprApplication extends Application<GreprConfiguration> {
     private static final Logger LOG = LoggerFactory.getLogger(GreprApplication.class);
 
     @Override
-    public void run(GreprConfiguration cfg, Environment env) {
-        QueryRepo store = new QueryRepo(cfg.dbUrl, cfg.dbUser, cfg.dbPassword);
-        store.failRunningOnStartup("server restarted while running");
+    public void run(GreprConfiguration cfg, Environment env) throws Exception {
+        Pools pools = new Pools(cfg.dbUrl, cfg.dbUser, cfg.dbPassword,
+                cfg.metaPoolSize, cfg.workerPoolSize, cfg.poolConnectionTimeoutMs,
+                cfg.workerPrepareThreshold, cfg.workerStatementCacheQueries, env.metrics());
+        env.lifecycle().manage(pools);
+
+        boolean distributed = "distributed".equalsIgnoreCase(cfg.dispatchMode);
+        String nodeId = (cfg.nodeId != null) ? cfg.nodeId : defaultNodeId();
+
+        QueryRepo store = new QueryRepo(pools.meta());
+        if (cfg.rowCacheMaxEntries > 0 && cfg.rowCacheTtlSeconds > 0) {
+            // Other nodes change rows behind this one's back, so there only finished rows are cached
+            store.cacheRows(new RowCache(cfg.rowCacheMaxEntries, cfg.rowCacheTtlSeconds * 1000L, !distributed, env.metrics()));
+        }
+        if (cfg.transitionFlushMs > 0) {
+            // Managed after the pools, so it is stopped (and drained) before they close
+            TransitionWriter writer = new TransitionWriter(store, cfg.transitionFlushMs, cfg.transitionBatchSize, env.metrics());
+            store.writeBehind(writer);
+            env.lifecycle().manage(writer);
+        }
+        // Other nodes may be running queries; abandoned ones are requeued by lease expiry instead
+        if (!distributed) store.failRunningOnStartup("server restarted while running");
+
+        AdmissionLedger ledger = new AdmissionLedger(cfg.maxPendingPerUser);
+        ledger.seed(store);
+        store.addListener(ledger);
+
+        StatusBus statusBus = new StatusBus(cfg.statusBusThreads);
+        store.addListener(statusBus);
+        env.lifecycle().manage(statusBus);
+
+        ChangeFeed feed = null;
+        if (distributed) {
+            feed = new ChangeFeed(store);
+            store.addListener(feed);
+        }
 
         File resultsDir = new File(cfg.resultsDir);
         if (!resultsDir.exists() && !resultsDir.mkdirs()) {
             LOG.warn("Failed to create resultsDir");
         }
 
-        SqlGuard sqlGuard = new SqlGuard(cfg.maxSqlChars);
-        RateLimiter rateLimiter = new RateLimiter(cfg.rateLimitPerMinute);
+        // Each node keeps its own cache links, even when resultsDir is shared
+        ResultCache resultCache = new ResultCache(resultsDir, distributed ? "cache-" + nodeId : "cache",
+                cfg.resultCacheTtlSeconds * 1000L, cfg.resultCacheMaxBytes, env.metrics());
+
+        ResultJanitor janitor = null;
+        if (cfg.resultJanitorIntervalSeconds > 0) {
+            janitor = new ResultJanitor(store, resultsDir, cfg.resultTtlSeconds * 1000L, cfg.resultQuotaBytesPerUser,
+                    cfg.resultQuotaBytes, cfg.resultJanitorIntervalSeconds * 1000L, cfg.resultJanitorBatchSize,
+                    env.metrics());
+            env.lifecycle().manage(janitor);
+        }
+
+        RuntimeStats runtimeStats = new RuntimeStats(cfg.runtimeStatsMaxEntries, cfg.defaultExpectedMs,
+                cfg.shortJobMs, env.metrics());
+        runtimeStats.seed(store.recentSucceeded(cfg.runtimeStatsMaxEntries));
+
+        FairScheduler scheduler = new FairScheduler(cfg.queueSize, cfg.maxRunningPerUser, cfg.maxRunningGlobal,
+                cfg.maxRunningLowPriority, cfg.shortJobMs, cfg.dispatchAging, cfg.userWeights,
+                cfg.queueWaitMaxUsers, env.metrics());
+
+        boolean virtual = "virtual".equalsIgnoreCase(cfg.executionMode);
+        if (virtual && cfg.workerPoolSize < cfg.maxRunningGlobal) {
+            LOG.warn("workerPoolSize {} is below maxRunningGlobal {}; queries will wait for connections",
+                    cfg.workerPoolSize, cfg.maxRunningGlobal);
+        }
+
+        // A batch is admitted whole, so one larger than the pending limit could never succeed
+        if (cfg.maxBatchSize > cfg.maxPendingPerUser) {
+            throw new IllegalArgumentException("maxBatchSize " + cfg.maxBatchSize
+                    + " is above maxPendingPerUser " + cfg.maxPendingPerUser);
+        }
+
+        int running = virtual ? cfg.maxRunningGlobal : cfg.workerCount;
+        if (cfg.parallelScanPartitions > 1
+                && cfg.workerPoolSize < running + cfg.parallelScanMaxConcurrent * (cfg.parallelScanPartitions - 1)) {
+            LOG.warn("workerPoolSize {} leaves split scans few spare connections; they will run in fewer parts",
+                    cfg.workerPoolSize);
+        }
+
+        SqlGuard sqlGuard = new SqlGuard(cfg.maxSqlChars, cfg.sqlGuardCacheSize);
+        RateLimiter rateLimiter = new RateLimiter(cfg.rateLimitPerMinute, cfg.rateLimitBurst);
+        RateLimiter readLimiter = new RateLimiter(cfg.readRateLimitPerMinute, cfg.readRateLimitBurst);
+        CostEstimator estimator = new CostEstimator(pools.meta(), cfg.explainTimeoutMs, cfg.maxEstimatedCost,
+                cfg.lowPriorityCost, env.getObjectMapper(), env.metrics());
 
         QueryService service = new QueryService(
                 store,
+                pools.worker(),
                 sqlGuard,
                 rateLimiter,
+                readLimiter,
                 cfg.workerCount,
-                cfg.queueSize,
-                cfg.maxPendingPerUser,
-                cfg.maxRunningPerUser,
-                cfg.maxRunningGlobal,
+                virtual,
+                distributed,
+                scheduler,
+                ledger,
                 resultsDir,
                 cfg.statementTimeoutMs,
                 cfg.fetchSize,
                 cfg.maxRows,
-                cfg.maxBytes
+                cfg.maxBytes,
+                cfg.resultIndexStride,
+                "gzip".equalsIgnoreCase(cfg.resultCompression) ? cfg.resultCompressionLevel : 0,
+                cfg.parallelScanPartitions,
+                cfg.parallelScanMinRows,
+                cfg.parallelScanMaxConcurrent,
+                resultCache,
+                estimator,
+                runtimeStats,
+                statusBus,
+                janitor,
+                cfg.maxStatusWaitSeconds * 1000L,
+                cfg.maxBatchSize
         );
+        // Managed after the writer and pools, so running scans stop before those close
+        env.lifecycle().manage(service);
+
+        if (distributed) {
+            env.lifecycle().manage(new ClusterDispatcher(store, feed, service, scheduler, nodeId,
+                    cfg.leaseMs, cfg.claimBatchSize, cfg.claimIntervalMs, cfg.queueSize, env.metrics()));
+        } else {
+            service.resumePending();
+        }
 
         env.jersey().register(new GlobalExceptionMapper());
         env.jersey().register(new AuthFilter());
 
         env.jersey().register(new PingResource());
         env.jersey().register(new QueryResource(service));
+        env.jersey().register(new QueryBatchResource(service));
+    }
+
+    private static String defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return UUID.randomUUID().toString();
+        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -2,26 +2,114 @@ package org.example;
 
 import io.dropwizard.Configuration;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class GreprConfiguration extends Configuration {
     public String dbUrl;
     public String dbUser;
     public String dbPassword;
 
+    // Metadata pool serves submit/status/cancel; worker pool serves user query execution
+    public int metaPoolSize = 8;
+    public int workerPoolSize = 4;
+    public long poolConnectionTimeoutMs = 5_000;
+    // Worker connections: executions of the same SQL text before it becomes a server-side
+    // prepared statement, and how many such statements each connection keeps
+    public int workerPrepareThreshold = 1;
+    public int workerStatementCacheQueries = 256;
+
+    // Worker status transitions are batched into one write every transitionFlushMs (0 writes each right away)
+    public long transitionFlushMs = 5;
+    public int transitionBatchSize = 500;
+
+    // Hot query rows kept in memory for status/results/cancel lookups; terminal ones expire after the TTL
+    public int rowCacheMaxEntries = 10_000;
+    public long rowCacheTtlSeconds = 300;
+
     public String resultsDir = "results";
 
+    // "platform": workerCount threads take jobs; "virtual": one virtual thread per dispatched
+    // job, bounded by maxRunningGlobal
+    public String executionMode = "platform";
+    // "local": queued work lives in this process; "distributed": every node sharing the database
+    // claims PENDING rows from it (resultsDir must then be shared storage). nodeId defaults to
+    // the host name; a node that stops renewing its lease for leaseMs loses its jobs.
+    public String dispatchMode = "local";
+    public String nodeId;
+    public long leaseMs = 30_000;
+    public int claimBatchSize = 20;
+    public long claimIntervalMs = 500;
     public int workerCount = 2;
     public int queueSize = 100;
 
     public int maxPendingPerUser = 10;
     public int maxRunningPerUser = 2;
     public int maxRunningGlobal = 10;
+    // Fair-share weight per user id for dispatch; users not listed weigh 1
+    public Map<String, Integer> userWeights = new HashMap<>();
+    // Users with a queueWait.<user> timer; the least recently dispatched one's is removed
+    public int queueWaitMaxUsers = 1_000;
+
+    // EXPLAIN at submit: above maxEstimatedCost a query is rejected, above lowPriorityCost it
+    // waits in the low-priority lane; 0 disables a threshold, explainTimeoutMs 0 disables EXPLAIN
+    public int explainTimeoutMs = 1_000;
+    public double maxEstimatedCost = 0;
+    public double lowPriorityCost = 0;
+    public int maxRunningLowPriority = 2;
+
+    // Dispatch prefers jobs whose fingerprint ran shortest before; each ms waited takes
+    // dispatchAging ms off a job's expected runtime. shortJobMs is the scheduler's cost quantum
+    // and the short/long split of the timeToResult metrics.
+    public int runtimeStatsMaxEntries = 10_000;
+    public long defaultExpectedMs = 1_000;
+    public long shortJobMs = 1_000;
+    public double dispatchAging = 1.0;
 
     public int statementTimeoutMs = 10_000;
     public int fetchSize = 500;
 
     public long maxRows = 200_000;
     public long maxBytes = 50_000_000;
+    // Every n-th row's byte offset is recorded in the result's row index
+    public int resultIndexStride = 1000;
+    // "gzip" or "none"; level 1 favours write speed, 9 favours size
+    public String resultCompression = "gzip";
+    public int resultCompressionLevel = 1;
+    // NDJSON scans of one table estimated at parallelScanMinRows rows or more are split into up
+    // to this many primary-key ranges read in parallel from one snapshot; 0 or 1 disables
+    public int parallelScanPartitions = 0;
+    public long parallelScanMinRows = 1_000_000;
+    // Split scans running at once; each holds up to parallelScanPartitions worker connections
+    public int parallelScanMaxConcurrent = 1;
+
+    // Identical deterministic queries are answered from a shared result for this long; 0 disables
+    public int resultCacheTtlSeconds = 300;
+    public long resultCacheMaxBytes = 1_000_000_000;
+
+    // Result files are deleted (the query becomes EXPIRED) resultTtlSeconds after finishing, or
+    // least recently downloaded first while a user or everyone is over quota; 0 disables each.
+    // The janitor runs every resultJanitorIntervalSeconds (0 disables it) and expires at most
+    // resultJanitorBatchSize results per run.
+    public long resultTtlSeconds = 86_400;
+    public long resultQuotaBytesPerUser = 1_000_000_000;
+    public long resultQuotaBytes = 10_000_000_000L;
+    public int resultJanitorIntervalSeconds = 30;
+    public int resultJanitorBatchSize = 500;
+
+    // Longest a GET /queries/{id}?wait= long-poll is held; bus threads notify waiters
+    public int maxStatusWaitSeconds = 60;
+    public int statusBusThreads = 4;
+
+    // Most queries per POST /queries:batch, and ids per GET /queries?ids=; at most maxPendingPerUser
+    public int maxBatchSize = 10;
 
     public int maxSqlChars = 10_000;
+    // Validation verdicts remembered for repeated SQL texts
+    public int sqlGuardCacheSize = 1_000;
+    // Per-user token buckets: submits, and status polls/result downloads; burst is the bucket size
     public int rateLimitPerMinute = 30;
+    public int rateLimitBurst = 30;
+    public int readRateLimitPerMinute = 600;
+    public int readRateLimitBurst = 60;
 }
@@ -0,0 +1,13 @@
+package org.example.dto;
+
+import java.util.List;
+// Responses for a batch submit or status lookup, in request order
+public class BatchQueryResponse {
+    public List<QueryResponse> queries;
+
+    public BatchQueryResponse() {}
+
+    public BatchQueryResponse(List<QueryResponse> queries) {
+        this.queries = queries;
+    }
+}
@@ -0,0 +1,17 @@
+package org.example.dto;
+
+import java.util.List;
+// Request payload for submitting several SQL queries at once
+public class BatchSubmitRequest {
+    private List<SubmitQueryRequest> queries;
+
+    public BatchSubmitRequest() {}
+
+    public List<SubmitQueryRequest> getQueries() {
+        return queries;
+    }
+
+    public void setQueries(List<SubmitQueryRequest> queries) {
+        this.queries = queries;
+    }
+}
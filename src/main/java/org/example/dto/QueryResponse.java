@@ -5,10 +5,15 @@ import java.time.Instant;
 public class QueryResponse {
     public String id;
     public QueryStatus status;
+    public ResultFormat format;
     public Instant createdAt;
     public Instant startedAt;
     public Instant endedAt;
     public String error;
     public Long rowsWritten;
     public Long bytesWritten;
+    public Long storedBytes;
+    // Planner estimate taken at submit, null when the query could not be explained
+    public Long estRows;
+    public Double estCost;
 }
@@ -1,5 +1,11 @@
 package org.example.dto;
 
 public enum QueryStatus {
-    PENDING, RUNNING, SUCCEEDED, FAILED, CANCELLED
+    // EXPIRED: succeeded, but the result file has since been deleted (TTL or disk quota)
+    PENDING, RUNNING, SUCCEEDED, FAILED, CANCELLED, EXPIRED;
+
+    // No further transitions happen from this status
+    public boolean terminal() {
+        return this != PENDING && this != RUNNING;
+    }
 }
@@ -0,0 +1,29 @@
+package org.example.dto;
+
+import java.util.Locale;
+
+// Output format of a query's result file
+public enum ResultFormat {
+    NDJSON("application/x-ndjson", ".ndjson"),
+    // Typed column vectors in row batches, schema written once; see ColumnarEncoder for the layout
+    COLUMNAR("application/vnd.grepr.columnar", ".col"),
+    // Written by Postgres itself (COPY ... TO STDOUT), with a header line; the fastest export
+    CSV("text/csv", ".csv");
+
+    public final String mediaType;
+    public final String extension;
+
+    ResultFormat(String mediaType, String extension) {
+        this.mediaType = mediaType;
+        this.extension = extension;
+    }
+
+    public static ResultFormat parse(String s) {
+        if (s == null || s.trim().isEmpty()) return NDJSON;
+        try {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown format: " + s);
+        }
+    }
+}
@@ -1,7 +1,14 @@
 package org.example.dto;
+
+import java.util.List;
+
 // Request payload for submitting a SQL query
 public class SubmitQueryRequest {
     private String sql;
+    // Values for the ? placeholders when sql is a template: strings, numbers, booleans or null
+    private List<Object> params;
+    // "ndjson" (default), "columnar" or "csv"
+    private String format;
 
     public SubmitQueryRequest() {}
 
@@ -13,4 +20,20 @@ public class SubmitQueryRequest {
 
         this.sql = sql;
     }
+
+    public List<Object> getParams() {
+        return params;
+    }
+
+    public void setParams(List<Object> params) {
+        this.params = params;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    public void setFormat(String format) {
+        this.format = format;
+    }
 }
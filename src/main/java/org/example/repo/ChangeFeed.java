@@ -0,0 +1,63 @@
+package org.example.repo;
+
+import org.example.dto.QueryStatus;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Follows status changes made by other nodes by polling queries.updated_at and replays them
+// to this node's listeners, so admission counts stay cluster-wide and a cancel reaches the
+// node running the query. Each poll re-reads a window of OVERLAP_MS before the cursor to catch
+// transactions that commit after a later one; every transition this node already delivered
+// (its own or replayed) is remembered for a while and not replayed again.
+public class ChangeFeed implements TransitionListener {
+    private static final long OVERLAP_MS = 5_000;
+
+    private static final class Seen {
+        final QueryStatus status;
+        final long atMs;
+
+        Seen(QueryStatus status, long atMs) {
+            this.status = status;
+            this.atMs = atMs;
+        }
+    }
+
+    private final QueryRepo store;
+    private final Map<String, Seen> seen = new ConcurrentHashMap<>();
+    // Only touched by the polling thread
+    private Instant cursor;
+
+    public ChangeFeed(QueryRepo store) throws SQLException {
+        this.store = store;
+        this.cursor = store.now();
+    }
+
+    @Override
+    public void onTransition(String id, String userId, QueryStatus status) {
+        seen.put(id, new Seen(status, System.currentTimeMillis()));
+    }
+
+    public void poll() throws SQLException {
+        Set<String> window = new HashSet<>();
+        for (QueryRepo.Row r : store.changedSince(cursor.minusMillis(OVERLAP_MS))) {
+            window.add(r.id);
+            if (r.updatedAt.isAfter(cursor)) cursor = r.updatedAt;
+            Seen s = seen.get(r.id);
+            if (s != null && s.status == r.status) continue;
+            store.replay(r.id, r.userId, r.status);
+        }
+
+        // Forget old transitions once the overlap window no longer returns them
+        long horizon = System.currentTimeMillis() - 4 * OVERLAP_MS;
+        for (Iterator<Map.Entry<String, Seen>> it = seen.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Seen> e = it.next();
+            if (e.getValue().atMs < horizon && !window.contains(e.getKey())) it.remove();
+        }
+    }
+}
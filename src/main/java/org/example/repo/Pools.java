@@ -0,0 +1,66 @@
+package org.example.repo;
+
+import com.codahale.metrics.MetricRegistry;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.dropwizard.lifecycle.Managed;
+
+// Builds the JDBC connection pools. Metadata reads/writes and user query execution
+// get separate pools so a burst of long-running queries can't starve status polling.
+public final class Pools implements Managed {
+    private final HikariDataSource meta;
+    private final HikariDataSource worker;
+
+    public Pools(String url, String user, String password,
+                 int metaPoolSize, int workerPoolSize, long connectionTimeoutMs,
+                 int workerPrepareThreshold, int workerStatementCacheQueries,
+                 MetricRegistry metrics) {
+        this.meta = create("meta", url, user, password, metaPoolSize, connectionTimeoutMs, metrics);
+        // pgjdbc keeps a per-connection cache of prepared statements by SQL text and switches one
+        // to a named server-side statement after prepareThreshold executions, so a template run
+        // again on the same pooled connection skips parsing and can use Postgres' cached plan
+        HikariConfig wc = config("worker", url, user, password, workerPoolSize, connectionTimeoutMs, metrics);
+        wc.addDataSourceProperty("prepareThreshold", workerPrepareThreshold);
+        wc.addDataSourceProperty("preparedStatementCacheQueries", workerStatementCacheQueries);
+        this.worker = new HikariDataSource(wc);
+    }
+
+    public HikariDataSource meta() {
+        return meta;
+    }
+
+    public HikariDataSource worker() {
+        return worker;
+    }
+
+    // Pool wait time, usage and active/idle/pending counts are published as
+    // "<name>.pool.Wait", "<name>.pool.Usage", ... in the metric registry
+    private static HikariDataSource create(String name, String url, String user, String password,
+                                           int size, long connectionTimeoutMs, MetricRegistry metrics) {
+        return new HikariDataSource(config(name, url, user, password, size, connectionTimeoutMs, metrics));
+    }
+
+    private static HikariConfig config(String name, String url, String user, String password,
+                                       int size, long connectionTimeoutMs, MetricRegistry metrics) {
+        HikariConfig hc = new HikariConfig();
+        hc.setPoolName(name);
+        hc.setJdbcUrl(url);
+        hc.setUsername(user);
+        hc.setPassword(password);
+        hc.setMaximumPoolSize(size);
+        hc.setMinimumIdle(size);
+        hc.setConnectionTimeout(connectionTimeoutMs);
+        hc.setMetricRegistry(metrics);
+        return hc;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        worker.close();
+        meta.close();
+    }
+}
@@ -1,39 +1,73 @@
 package org.example.repo;
 
 import org.example.dto.QueryStatus;
+import org.example.dto.ResultFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class QueryRepo {
     private static final Logger LOG = LoggerFactory.getLogger(QueryRepo.class);
 
-    private final String url;
-    private final String user;
-    private final String password;
+    private final DataSource ds;
+    private final List<TransitionListener> listeners = new CopyOnWriteArrayList<>();
+    // Null when transitions are written synchronously
+    private volatile TransitionWriter writer;
+    // Null when every read goes to the table
+    private volatile RowCache rows;
 
-    public QueryRepo(String url, String user, String password) {
-        this.url = url;
-        this.user = user;
-        this.password = password;
+    public QueryRepo(DataSource ds) {
+        this.ds = ds;
     }
 
+    public void cacheRows(RowCache rows) {
+        this.rows = rows;
+    }
+
+    // Worker transitions from now on go through the writer's batches
+    public void writeBehind(TransitionWriter writer) {
+        this.writer = writer;
+    }
+
+    public void addListener(TransitionListener l) {
+        listeners.add(l);
+    }
+
+    private void fire(String id, String userId, QueryStatus status) {
+        for (TransitionListener l : listeners) {
+            try {
+                l.onTransition(id, userId, status);
+            } catch (Exception e) {
+                LOG.warn("Transition listener failed queryId={}", id, e);
+            }
+        }
+    }
+
+    // Borrows a pooled connection for metadata work; closing it returns it to the pool
     public Connection conn() throws SQLException {
-        return DriverManager.getConnection(url, user, password);
+        return ds.getConnection();
     }
 
     public void failRunningOnStartup(String msg) {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "update queries set status='FAILED', ended_at=now(), error=? where status='RUNNING'")) {
+                     "update queries set status='FAILED', ended_at=now(), error=?, updated_at=now() where status='RUNNING'")) {
             ps.setString(1, msg);
             ps.executeUpdate();
         } catch (Exception e) {
@@ -42,14 +76,66 @@ public class QueryRepo {
     }
 
     public Optional<Row> byId(String userId, String id) throws SQLException {
+        RowCache cache = rows;
+        if (cache != null) {
+            Row hit = cache.get(id);
+            // Ids are unique, so a cached row of another user means the query isn't this user's
+            if (hit != null) return hit.userId.equals(userId) ? Optional.of(overlay(hit)) : Optional.empty();
+        }
+        long version = (cache == null) ? 0 : cache.version();
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement("select * from queries where id=? and user_id=?")) {
             ps.setString(1, id);
             ps.setString(2, userId);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) return Optional.empty();
-                return Optional.of(read(rs));
+                Row r = read(rs);
+                if (cache != null) cache.fill(r, version);
+                return Optional.of(overlay(r));
+            }
+        }
+    }
+
+    // The user's queries among ids, in one round trip
+    public List<Row> byIds(String userId, List<String> ids) throws SQLException {
+        RowCache cache = rows;
+        List<Row> out = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            Row hit = (cache == null) ? null : cache.get(id);
+            if (hit == null) missing.add(id);
+            else if (hit.userId.equals(userId)) out.add(overlay(hit));
+        }
+        if (missing.isEmpty()) return out;
+
+        long version = (cache == null) ? 0 : cache.version();
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement("select * from queries where user_id=? and id = any(?)")) {
+            ps.setString(1, userId);
+            ps.setArray(2, c.createArrayOf("text", missing.toArray()));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Row r = read(rs);
+                    if (cache != null) cache.fill(r, version);
+                    out.add(overlay(r));
+                }
             }
+            return out;
+        }
+    }
+
+    // The user's queries among the idempotency keys
+    public List<Row> byIdems(String userId, List<String> keys) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select * from queries where user_id=? and idempotency_key = any(?)")) {
+            ps.setString(1, userId);
+            ps.setArray(2, c.createArrayOf("text", keys.toArray()));
+            List<Row> out = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(overlay(read(rs)));
+            }
+            return out;
         }
     }
 
@@ -61,108 +147,389 @@ public class QueryRepo {
             ps.setString(2, idem);
             try (ResultSet rs = ps.executeQuery()) {
                 if (!rs.next()) return Optional.empty();
-                return Optional.of(read(rs));
+                return Optional.of(overlay(read(rs)));
             }
         }
     }
 
-    public int countUser(String userId, QueryStatus st) throws SQLException {
+    // PENDING and RUNNING queries, used to seed in-memory admission state at startup
+    public List<Row> active() throws SQLException {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "select count(*) from queries where user_id=? and status=?")) {
-            ps.setString(1, userId);
-            ps.setString(2, st.name());
+                     "select id, user_id, status from queries where status in ('PENDING','RUNNING')")) {
+            List<Row> out = new ArrayList<>();
             try (ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt(1);
+                while (rs.next()) {
+                    Row r = new Row();
+                    r.id = rs.getString("id");
+                    r.userId = rs.getString("user_id");
+                    r.status = QueryStatus.valueOf(rs.getString("status"));
+                    out.add(r);
+                }
             }
+            return out;
         }
     }
 
-    public int countGlobal(QueryStatus st) throws SQLException {
+    // Latest executed successes (whether or not the result is still kept), oldest first; cache
+    // hits (no execution time) are left out
+    public List<Row> recentSucceeded(int limit) throws SQLException {
         try (Connection c = conn();
-             PreparedStatement ps = c.prepareStatement("select count(*) from queries where status=?")) {
-            ps.setString(1, st.name());
+             PreparedStatement ps = c.prepareStatement(
+                     "select * from (select * from queries where status in ('SUCCEEDED','EXPIRED') and ended_at > started_at " +
+                             "order by ended_at desc limit ?) recent order by ended_at")) {
+            ps.setInt(1, limit);
+            List<Row> out = new ArrayList<>();
             try (ResultSet rs = ps.executeQuery()) {
-                rs.next();
-                return rs.getInt(1);
+                while (rs.next()) out.add(read(rs));
             }
+            return out;
         }
     }
 
-    public void insert(Row r) throws SQLException {
+    // Queued work left behind by a previous run of this process, oldest first
+    public List<Row> pending() throws SQLException {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "insert into queries(id,user_id,idempotency_key,sql,status,created_at) values(?,?,?,?,?,?)")) {
-            ps.setString(1, r.id);
-            ps.setString(2, r.userId);
-            ps.setString(3, r.idempotencyKey);
-            ps.setString(4, r.sql);
-            ps.setString(5, r.status.name());
-            ps.setTimestamp(6, Timestamp.from(r.createdAt));
-            ps.executeUpdate();
+                     "select * from queries where status='PENDING' order by created_at")) {
+            List<Row> out = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(read(rs));
+            }
+            return out;
         }
     }
 
-    public boolean pendingToRunning(String userId, String id, Instant startedAt) throws SQLException {
+    // Claims up to limit unclaimed PENDING rows for a node. SKIP LOCKED lets concurrent
+    // claimers on other nodes pass over rows being claimed instead of waiting on them.
+    public List<Row> claim(String nodeId, int limit, long leaseMs) throws SQLException {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "update queries set status='RUNNING', started_at=? where id=? and user_id=? and status='PENDING'")) {
-            ps.setTimestamp(1, Timestamp.from(startedAt));
-            ps.setString(2, id);
-            ps.setString(3, userId);
-            return ps.executeUpdate() == 1;
+                     "update queries q set claimed_by=?, lease_until=now() + ? * interval '1 millisecond' " +
+                             "from (select id from queries " +
+                             "      where status='PENDING' and (lease_until is null or lease_until < now()) " +
+                             "      order by created_at limit ? for update skip locked) c " +
+                             "where q.id = c.id returning q.*")) {
+            ps.setString(1, nodeId);
+            ps.setLong(2, leaseMs);
+            ps.setInt(3, limit);
+            List<Row> out = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(read(rs));
+            }
+            return out;
         }
     }
 
-    public void succeed(String userId, String id, Instant endedAt, String path, long rows, long bytes) throws SQLException {
+    // Heartbeat: extends the lease on every queued or running job the node holds
+    public int renewLeases(String nodeId, long leaseMs) throws SQLException {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "update queries " +
-                             "set status='SUCCEEDED', ended_at=?, result_path=?, rows_written=?, bytes_written=?, error=null " +
-                             "where id=? and user_id=? and status='RUNNING'")) {
-            ps.setTimestamp(1, Timestamp.from(endedAt));
-            ps.setString(2, path);
-            ps.setLong(3, rows);
-            ps.setLong(4, bytes);
-            ps.setString(5, id);
-            ps.setString(6, userId);
-            ps.executeUpdate();
+                     "update queries set lease_until=now() + ? * interval '1 millisecond' " +
+                             "where claimed_by=? and status in ('PENDING','RUNNING')")) {
+            ps.setLong(1, leaseMs);
+            ps.setString(2, nodeId);
+            return ps.executeUpdate();
         }
     }
 
-    public void fail(String userId, String id, Instant endedAt, String error) throws SQLException {
+    // Puts jobs whose lease ran out (their node stopped heart-beating) back to unclaimed
+    // PENDING, as well as any still held by ownNode (this node's previous run), if given
+    public int requeueAbandoned(String ownNode) throws SQLException {
+        List<Row> requeued = new ArrayList<>();
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "update queries " +
-                             "set status='FAILED', ended_at=?, error=? " +
-                             "where id=? and user_id=? and status='RUNNING'")) {
-            ps.setTimestamp(1, Timestamp.from(endedAt));
-            ps.setString(2, error);
-            ps.setString(3, id);
-            ps.setString(4, userId);
+                     "update queries set status='PENDING', started_at=null, claimed_by=null, lease_until=null, " +
+                             "updated_at=now() " +
+                             "where status in ('PENDING','RUNNING') and claimed_by is not null " +
+                             "and (lease_until < now() or claimed_by = ?) " +
+                             "returning id, user_id")) {
+            ps.setString(1, ownNode);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Row r = new Row();
+                    r.id = rs.getString("id");
+                    r.userId = rs.getString("user_id");
+                    requeued.add(r);
+                }
+            }
+        }
+        for (Row r : requeued) {
+            invalidate(r.id);
+            fire(r.id, r.userId, QueryStatus.PENDING);
+        }
+        return requeued.size();
+    }
+
+    // Current status of every query whose status changed after the given time
+    public List<Row> changedSince(Instant since) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select id, user_id, status, updated_at from queries where updated_at > ? order by updated_at")) {
+            ps.setTimestamp(1, Timestamp.from(since));
+            List<Row> out = new ArrayList<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Row r = new Row();
+                    r.id = rs.getString("id");
+                    r.userId = rs.getString("user_id");
+                    r.status = QueryStatus.valueOf(rs.getString("status"));
+                    r.updatedAt = rs.getTimestamp("updated_at").toInstant();
+                    out.add(r);
+                }
+            }
+            return out;
+        }
+    }
+
+    // Database clock, which every node's updated_at values come from
+    public Instant now() throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement("select now()");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getTimestamp(1).toInstant();
+        }
+    }
+
+    // Delivers a transition made elsewhere (another node) to this process's listeners
+    public void replay(String id, String userId, QueryStatus status) {
+        invalidate(id);
+        fire(id, userId, status);
+    }
+
+    public void insert(Row r) throws SQLException {
+        insertAll(Collections.singletonList(r));
+    }
+
+    // One multi-row insert: all rows are stored or none is
+    public void insertAll(List<Row> rows) throws SQLException {
+        if (rows.isEmpty()) return;
+        StringBuilder sql = new StringBuilder(
+                "insert into queries(id,user_id,idempotency_key,sql,params,format,status,created_at," +
+                        "started_at,ended_at,result_path,rows_written,bytes_written,stored_bytes,est_rows,est_cost) values ");
+        for (int i = 0; i < rows.size(); i++) {
+            sql.append(i == 0 ? "" : ",").append("(?,?,?,?,?::jsonb,?,?,?,?,?,?,?,?,?,?,?)");
+        }
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(sql.toString())) {
+            int p = 0;
+            for (Row r : rows) {
+                ps.setString(++p, r.id);
+                ps.setString(++p, r.userId);
+                ps.setString(++p, r.idempotencyKey);
+                ps.setString(++p, r.sql);
+                ps.setString(++p, r.params);
+                ps.setString(++p, r.format.name());
+                ps.setString(++p, r.status.name());
+                ps.setTimestamp(++p, Timestamp.from(r.createdAt));
+                ps.setTimestamp(++p, (r.startedAt == null) ? null : Timestamp.from(r.startedAt));
+                ps.setTimestamp(++p, (r.endedAt == null) ? null : Timestamp.from(r.endedAt));
+                ps.setString(++p, r.resultPath);
+                ps.setLong(++p, (r.rowsWritten == null) ? 0 : r.rowsWritten);
+                ps.setLong(++p, (r.bytesWritten == null) ? 0 : r.bytesWritten);
+                ps.setLong(++p, (r.storedBytes == null) ? 0 : r.storedBytes);
+                ps.setObject(++p, r.estRows, Types.BIGINT);
+                ps.setObject(++p, r.estCost, Types.DOUBLE);
+            }
             ps.executeUpdate();
         }
+        RowCache cache = this.rows;
+        for (Row r : rows) {
+            if (cache != null) cache.put(r);
+            fire(r.id, r.userId, r.status);
+        }
+    }
+
+    public boolean pendingToRunning(String userId, String id, Instant startedAt) throws SQLException {
+        Transition t = Transition.running(userId, id, startedAt);
+        TransitionWriter w = writer;
+        return (w != null) ? w.await(t) : applyNow(t);
+    }
+
+    public void succeed(String userId, String id, Instant endedAt, String path, long rows, long bytes, long storedBytes) throws SQLException {
+        write(Transition.succeeded(userId, id, endedAt, path, rows, bytes, storedBytes));
+    }
+
+    public void fail(String userId, String id, Instant endedAt, String error) throws SQLException {
+        write(Transition.failed(userId, id, endedAt, error));
+    }
+
+    // Returns once the transition is stored, so a finished query is never acknowledged (to the
+    // worker, followers or a crash) ahead of its row
+    private void write(Transition t) throws SQLException {
+        TransitionWriter w = writer;
+        if (w != null) w.await(t);
+        else applyNow(t);
+    }
+
+    boolean applyNow(Transition t) throws SQLException {
+        try (Connection c = conn()) {
+            if (!t.applyTo(c)) return false;
+        }
+        applied(t);
+        return true;
+    }
+
+    // A stored worker transition: cached row first, so listeners reading it see the change
+    void applied(Transition t) {
+        RowCache cache = rows;
+        if (cache != null) cache.update(t.id, t::update);
+        fire(t.id, t.userId, t.status);
+    }
+
+    private void invalidate(String id) {
+        RowCache cache = rows;
+        if (cache != null) cache.invalidate(id);
     }
 
+    private Row overlay(Row r) {
+        TransitionWriter w = writer;
+        return (w != null) ? w.overlay(r) : r;
+    }
 
     public void cancel(String userId, String id, Instant endedAt) throws SQLException {
         try (Connection c = conn();
              PreparedStatement ps = c.prepareStatement(
-                     "update queries set status='CANCELLED', ended_at=? where id=? and user_id=? and status in ('PENDING','RUNNING')")) {
+                     "update queries set status='CANCELLED', ended_at=?, updated_at=now() " +
+                             "where id=? and user_id=? and status in ('PENDING','RUNNING')")) {
             ps.setTimestamp(1, Timestamp.from(endedAt));
             ps.setString(2, id);
             ps.setString(3, userId);
-            ps.executeUpdate();
+            if (ps.executeUpdate() != 1) return;
+        }
+        RowCache cache = rows;
+        if (cache != null) {
+            cache.update(id, r -> {
+                r.status = QueryStatus.CANCELLED;
+                r.endedAt = endedAt;
+            });
+        }
+        fire(id, userId, QueryStatus.CANCELLED);
+    }
+
+    // Stored results finished before cutoff, oldest first
+    public List<Row> resultsEndedBefore(Instant cutoff, int limit) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select id, user_id, result_path, stored_bytes from queries " +
+                             "where status='SUCCEEDED' and ended_at < ? order by ended_at limit ?")) {
+            ps.setTimestamp(1, Timestamp.from(cutoff));
+            ps.setInt(2, limit);
+            return readResults(ps);
+        }
+    }
+
+    // Stored results of one user (or everyone's, for a null userId), least recently
+    // downloaded first; a result never downloaded counts as read when it finished
+    public List<Row> leastRecentlyRead(String userId, int limit) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select id, user_id, result_path, stored_bytes from queries where status='SUCCEEDED' " +
+                             (userId == null ? "" : "and user_id=? ") +
+                             "order by coalesce(last_read_at, ended_at) limit ?")) {
+            int p = 0;
+            if (userId != null) ps.setString(++p, userId);
+            ps.setInt(++p, limit);
+            return readResults(ps);
+        }
+    }
+
+    // Size on disk of each user's stored results
+    public Map<String, Long> resultBytesByUser() throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select user_id, sum(stored_bytes) from queries where status='SUCCEEDED' group by user_id")) {
+            Map<String, Long> out = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.put(rs.getString(1), rs.getLong(2));
+            }
+            return out;
+        }
+    }
+
+    // Status and result path of the given queries that exist
+    public Map<String, Row> resultsOf(Collection<String> ids) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "select id, user_id, status, result_path from queries where id = any(?)")) {
+            ps.setArray(1, c.createArrayOf("text", ids.toArray()));
+            Map<String, Row> out = new HashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Row r = new Row();
+                    r.id = rs.getString("id");
+                    r.userId = rs.getString("user_id");
+                    r.status = QueryStatus.valueOf(rs.getString("status"));
+                    r.resultPath = rs.getString("result_path");
+                    out.put(r.id, r);
+                }
+            }
+            return out;
+        }
+    }
+
+    // Records downloads, collected in memory, as one batch
+    public void markRead(Map<String, Instant> reads) throws SQLException {
+        if (reads.isEmpty()) return;
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "update queries set last_read_at=? where id=? and (last_read_at is null or last_read_at < ?)")) {
+            for (Map.Entry<String, Instant> e : reads.entrySet()) {
+                Timestamp at = Timestamp.from(e.getValue());
+                ps.setTimestamp(1, at);
+                ps.setString(2, e.getKey());
+                ps.setTimestamp(3, at);
+                ps.addBatch();
+            }
+            ps.executeBatch();
         }
     }
 
+    // SUCCEEDED -> EXPIRED once the result file is to be deleted; false if the row has moved on
+    public boolean expire(String userId, String id) throws SQLException {
+        try (Connection c = conn();
+             PreparedStatement ps = c.prepareStatement(
+                     "update queries set status='EXPIRED', result_path=null, updated_at=now() " +
+                             "where id=? and status='SUCCEEDED'")) {
+            ps.setString(1, id);
+            if (ps.executeUpdate() != 1) return false;
+        }
+        RowCache cache = rows;
+        if (cache != null) {
+            cache.update(id, r -> {
+                r.status = QueryStatus.EXPIRED;
+                r.resultPath = null;
+            });
+        }
+        fire(id, userId, QueryStatus.EXPIRED);
+        return true;
+    }
+
+    private static List<Row> readResults(PreparedStatement ps) throws SQLException {
+        List<Row> out = new ArrayList<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Row r = new Row();
+                r.id = rs.getString("id");
+                r.userId = rs.getString("user_id");
+                r.status = QueryStatus.SUCCEEDED;
+                r.resultPath = rs.getString("result_path");
+                r.storedBytes = rs.getLong("stored_bytes");
+                out.add(r);
+            }
+        }
+        return out;
+    }
+
     private static Row read(ResultSet rs) throws SQLException {
         Row r = new Row();
         r.id = rs.getString("id");
         r.userId = rs.getString("user_id");
         r.idempotencyKey = rs.getString("idempotency_key");
         r.sql = rs.getString("sql");
+        r.params = rs.getString("params");
+        r.format = ResultFormat.valueOf(rs.getString("format"));
         r.status = QueryStatus.valueOf(rs.getString("status"));
         r.createdAt = rs.getTimestamp("created_at").toInstant();
 
@@ -180,6 +547,18 @@ public class QueryRepo {
         long bw = rs.getLong("bytes_written");
         r.bytesWritten = rs.wasNull() ? null : bw;
 
+        long sb = rs.getLong("stored_bytes");
+        r.storedBytes = rs.wasNull() ? null : sb;
+
+        long er = rs.getLong("est_rows");
+        r.estRows = rs.wasNull() ? null : er;
+
+        double ec = rs.getDouble("est_cost");
+        r.estCost = rs.wasNull() ? null : ec;
+
+        Timestamp up = rs.getTimestamp("updated_at");
+        r.updatedAt = (up == null) ? null : up.toInstant();
+
         return r;
     }
 
@@ -188,6 +567,9 @@ public class QueryRepo {
         public String userId;
         public String idempotencyKey;
         public String sql;
+        // JSON array of the template's parameter values; null for plain SQL
+        public String params;
+        public ResultFormat format = ResultFormat.NDJSON;
         public QueryStatus status;
         public Instant createdAt;
         public Instant startedAt;
@@ -196,5 +578,32 @@ public class QueryRepo {
         public String resultPath;
         public Long rowsWritten;
         public Long bytesWritten;
+        public Long storedBytes;
+        public Long estRows;
+        public Double estCost;
+        public Instant updatedAt;
+
+        public Row copy() {
+            Row r = new Row();
+            r.id = id;
+            r.userId = userId;
+            r.idempotencyKey = idempotencyKey;
+            r.sql = sql;
+            r.params = params;
+            r.format = format;
+            r.status = status;
+            r.createdAt = createdAt;
+            r.startedAt = startedAt;
+            r.endedAt = endedAt;
+            r.error = error;
+            r.resultPath = resultPath;
+            r.rowsWritten = rowsWritten;
+            r.bytesWritten = bytesWritten;
+            r.storedBytes = storedBytes;
+            r.estRows = estRows;
+            r.estCost = estCost;
+            r.updatedAt = updatedAt;
+            return r;
+        }
     }
 }
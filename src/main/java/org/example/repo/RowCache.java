@@ -0,0 +1,123 @@
+package org.example.repo;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Hot query rows by id, so repeated status polls, downloads and cancels of a query don't each
+// read the table. QueryRepo keeps it current write-through: inserted rows are added and every
+// transition this process makes updates the entry, while changes made elsewhere (replayed from
+// other nodes, lease requeues) drop it. Active rows are only cached when every transition goes
+// through this process (local dispatch); terminal rows no longer change and stay for ttlMs.
+// Bounded by entry count, LRU.
+public class RowCache {
+    private static final class Cached {
+        final QueryRepo.Row row;
+        final long expiresAtMs;
+
+        Cached(QueryRepo.Row row, long expiresAtMs) {
+            this.row = row;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final boolean cacheActive;
+
+    // Access-ordered with the least recently used entry evicted first; guarded by this
+    private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    // Bumped by every change; a row read from the table is only cached if nothing changed
+    // while it was read, unless it is terminal and so can't have gone stale
+    private long version;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    public RowCache(int maxEntries, long ttlMs, boolean cacheActive, MetricRegistry metrics) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMs;
+        this.cacheActive = cacheActive;
+        this.hits = metrics.meter(MetricRegistry.name(RowCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(RowCache.class, "misses"));
+        metrics.register(MetricRegistry.name(RowCache.class, "entries"), (Gauge<Integer>) this::size);
+        metrics.register(MetricRegistry.name(RowCache.class, "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                double h = hits.getOneMinuteRate();
+                return Ratio.of(h, h + misses.getOneMinuteRate());
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // A copy the caller may change; null on a miss
+    synchronized QueryRepo.Row get(String id) {
+        Cached e = entries.get(id);
+        if (e != null && e.expiresAtMs <= System.currentTimeMillis()) {
+            entries.remove(id);
+            e = null;
+        }
+        if (e == null) {
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        return e.row.copy();
+    }
+
+    synchronized long version() {
+        return version;
+    }
+
+    // Caches a row read from the table, provided no change raced with the read
+    synchronized void fill(QueryRepo.Row r, long readAtVersion) {
+        if (!r.status.terminal() && readAtVersion != version) return;
+        store(r.copy());
+    }
+
+    // Write-through of a row this process just inserted
+    synchronized void put(QueryRepo.Row r) {
+        version++;
+        store(r.copy());
+    }
+
+    // Write-through of a change this process just stored
+    synchronized void update(String id, Consumer<QueryRepo.Row> change) {
+        version++;
+        Cached e = entries.remove(id);
+        if (e == null) return;
+        QueryRepo.Row r = e.row.copy();
+        change.accept(r);
+        store(r);
+    }
+
+    // Changed by someone else: read it again next time
+    synchronized void invalidate(String id) {
+        version++;
+        entries.remove(id);
+    }
+
+    private void store(QueryRepo.Row r) {
+        if (r.status.terminal()) {
+            entries.put(r.id, new Cached(r, System.currentTimeMillis() + ttlMs));
+        } else if (cacheActive) {
+            entries.put(r.id, new Cached(r, Long.MAX_VALUE));
+        } else {
+            entries.remove(r.id);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.example.repo;
+
+import org.example.dto.QueryStatus;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+// A status change made by a worker (RUNNING, SUCCEEDED or FAILED) and the conditional
+// update that stores it. Written right away by QueryRepo or batched by TransitionWriter.
+final class Transition {
+    private static final String RUNNING_SQL =
+            "update queries set status='RUNNING', started_at=?, updated_at=now() " +
+                    "where id=? and user_id=? and status='PENDING'";
+    private static final String SUCCEEDED_SQL =
+            "update queries " +
+                    "set status='SUCCEEDED', ended_at=?, result_path=?, rows_written=?, bytes_written=?, stored_bytes=?, error=null, updated_at=now() " +
+                    "where id=? and user_id=? and status='RUNNING'";
+    private static final String FAILED_SQL =
+            "update queries " +
+                    "set status='FAILED', ended_at=?, error=?, updated_at=now() " +
+                    "where id=? and user_id=? and status in ('PENDING','RUNNING')";
+
+    final QueryStatus status;
+    final String id;
+    final String userId;
+    final Instant at;
+    final String resultPath;
+    final long rows;
+    final long bytes;
+    final long storedBytes;
+    final String error;
+
+    // Write-behind bookkeeping: queue position, and whether the update matched the row
+    long seq;
+    final CompletableFuture<Boolean> applied = new CompletableFuture<>();
+
+    private Transition(QueryStatus status, String id, String userId, Instant at,
+                       String resultPath, long rows, long bytes, long storedBytes, String error) {
+        this.status = status;
+        this.id = id;
+        this.userId = userId;
+        this.at = at;
+        this.resultPath = resultPath;
+        this.rows = rows;
+        this.bytes = bytes;
+        this.storedBytes = storedBytes;
+        this.error = error;
+    }
+
+    static Transition running(String userId, String id, Instant startedAt) {
+        return new Transition(QueryStatus.RUNNING, id, userId, startedAt, null, 0, 0, 0, null);
+    }
+
+    static Transition succeeded(String userId, String id, Instant endedAt, String path, long rows, long bytes, long storedBytes) {
+        return new Transition(QueryStatus.SUCCEEDED, id, userId, endedAt, path, rows, bytes, storedBytes, null);
+    }
+
+    static Transition failed(String userId, String id, Instant endedAt, String error) {
+        return new Transition(QueryStatus.FAILED, id, userId, endedAt, null, 0, 0, 0, error);
+    }
+
+    String sql() {
+        switch (status) {
+            case RUNNING:
+                return RUNNING_SQL;
+            case SUCCEEDED:
+                return SUCCEEDED_SQL;
+            default:
+                return FAILED_SQL;
+        }
+    }
+
+    void bind(PreparedStatement ps) throws SQLException {
+        int p = 0;
+        ps.setTimestamp(++p, Timestamp.from(at));
+        if (status == QueryStatus.SUCCEEDED) {
+            ps.setString(++p, resultPath);
+            ps.setLong(++p, rows);
+            ps.setLong(++p, bytes);
+            ps.setLong(++p, storedBytes);
+        } else if (status == QueryStatus.FAILED) {
+            ps.setString(++p, error);
+        }
+        ps.setString(++p, id);
+        ps.setString(++p, userId);
+    }
+
+    // The row as this transition leaves it
+    void update(QueryRepo.Row r) {
+        r.status = status;
+        if (status == QueryStatus.RUNNING) {
+            r.startedAt = at;
+            return;
+        }
+        r.endedAt = at;
+        r.error = error;
+        if (status == QueryStatus.SUCCEEDED) {
+            r.resultPath = resultPath;
+            r.rowsWritten = rows;
+            r.bytesWritten = bytes;
+            r.storedBytes = storedBytes;
+        }
+    }
+
+    // False when the row was not in a status this transition moves it from
+    boolean applyTo(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(sql())) {
+            bind(ps);
+            return ps.executeUpdate() == 1;
+        }
+    }
+}
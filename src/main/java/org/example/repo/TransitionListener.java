@@ -0,0 +1,8 @@
+package org.example.repo;
+
+import org.example.dto.QueryStatus;
+
+// Notified by QueryRepo after a query row has been moved to a new status
+public interface TransitionListener {
+    void onTransition(String id, String userId, QueryStatus status);
+}
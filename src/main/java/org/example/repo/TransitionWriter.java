@@ -0,0 +1,269 @@
+package org.example.repo;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import io.dropwizard.lifecycle.Managed;
+import org.example.dto.QueryStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-behind for the transitions workers make. They are queued from every worker and one
+// flusher thread stores them every flushMs as JDBC batches, on one connection and in one
+// transaction, instead of a connection and commit each.
+//  - Batches are written in queue order, and inside a batch RUNNING updates go before terminal
+//    ones, so each query's transitions reach the table in the order they were made.
+//  - Listeners are told once the batch has committed: other nodes, the admission ledger and
+//    status waiters never act on a status that could still be lost.
+//  - Callers wait for their batch (group commit): for RUNNING, whether the row was still PENDING
+//    decides if the query runs; SUCCEEDED/FAILED must be stored before the worker reports the
+//    query finished. Workers finishing together still share one commit. Until it commits,
+//    overlay() lays the transition over rows read from the table.
+public class TransitionWriter implements Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(TransitionWriter.class);
+    private static final long IDLE_POLL_MS = 100;
+    // How long a stored patch keeps overlaying rows, for reads that started before its commit
+    private static final long STORED_GRACE_MS = 1_000;
+
+    // A query's not yet stored transitions, merged; seq is the latest one's
+    private static final class Patch {
+        final long seq;
+        // When the batch carrying the latest transition finished; 0 while it is queued
+        volatile long storedAtMs;
+        final QueryStatus status;
+        final Instant startedAt;
+        final Instant endedAt;
+        final String resultPath;
+        final Long rows;
+        final Long bytes;
+        final Long storedBytes;
+        final String error;
+
+        Patch(Patch prev, Transition t) {
+            this.seq = t.seq;
+            this.status = t.status;
+            boolean running = t.status == QueryStatus.RUNNING;
+            this.startedAt = running ? t.at : (prev == null ? null : prev.startedAt);
+            this.endedAt = running ? null : t.at;
+            boolean succeeded = t.status == QueryStatus.SUCCEEDED;
+            this.resultPath = succeeded ? t.resultPath : null;
+            this.rows = succeeded ? Long.valueOf(t.rows) : null;
+            this.bytes = succeeded ? Long.valueOf(t.bytes) : null;
+            this.storedBytes = succeeded ? Long.valueOf(t.storedBytes) : null;
+            this.error = t.error;
+        }
+    }
+
+    private final QueryRepo store;
+    private final long flushNanos;
+    private final int maxBatch;
+    private final BlockingQueue<Transition> queue = new LinkedBlockingQueue<>();
+    // Per query, its queued transitions; kept for STORED_GRACE_MS once stored
+    private final Map<String, Patch> unflushed = new ConcurrentHashMap<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    private final Histogram batchSizes;
+    private final Timer flushes;
+
+    public TransitionWriter(QueryRepo store, long flushMs, int maxBatch, MetricRegistry metrics) {
+        this.store = store;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMs);
+        this.maxBatch = maxBatch;
+        this.batchSizes = metrics.histogram(MetricRegistry.name(TransitionWriter.class, "batchSize"));
+        this.flushes = metrics.timer(MetricRegistry.name(TransitionWriter.class, "flush"));
+        // Workers start before the lifecycle does, so the flusher runs from construction
+        this.flusher = new Thread(this::loop, "transition-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void start() {
+    }
+
+    // Stores whatever is still queued before the pools close
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        flusher.join();
+        List<Transition> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) flush(rest);
+    }
+
+    private void submit(Transition t) throws SQLException {
+        if (!running) {
+            // Shutting down: nothing will flush it any more
+            store.applyNow(t);
+            return;
+        }
+        synchronized (this) {
+            t.seq = seq.incrementAndGet();
+            unflushed.compute(t.id, (k, prev) -> new Patch(prev, t));
+            queue.add(t);
+        }
+    }
+
+    // Queues the transition and waits until its batch is stored; true if it matched the row
+    boolean await(Transition t) throws SQLException {
+        if (!running) return store.applyNow(t);
+        submit(t);
+        try {
+            return t.applied.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted waiting for transition write", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) throw (SQLException) cause;
+            throw new SQLException(cause);
+        }
+    }
+
+    // Read-your-writes: the row as it will be once queued transitions are stored. A row the
+    // table already has in a later status (e.g. cancelled meanwhile) is left alone, as the
+    // queued update won't match it either.
+    QueryRepo.Row overlay(QueryRepo.Row r) {
+        Patch p = unflushed.get(r.id);
+        if (p == null || stage(p.status) <= stage(r.status)) return r;
+        r.status = p.status;
+        if (p.startedAt != null) r.startedAt = p.startedAt;
+        if (p.status.terminal()) {
+            r.endedAt = p.endedAt;
+            r.error = p.error;
+        }
+        if (p.status == QueryStatus.SUCCEEDED) {
+            r.resultPath = p.resultPath;
+            r.rowsWritten = p.rows;
+            r.bytesWritten = p.bytes;
+            r.storedBytes = p.storedBytes;
+        }
+        return r;
+    }
+
+    private static int stage(QueryStatus s) {
+        if (s == QueryStatus.PENDING) return 0;
+        return s == QueryStatus.RUNNING ? 1 : 2;
+    }
+
+    private void loop() {
+        List<Transition> batch = new ArrayList<>();
+        while (running) {
+            pruneStored();
+            try {
+                Transition first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                // Gather what the other workers produce within the flush interval
+                long deadline = System.nanoTime() + flushNanos;
+                while (batch.size() < maxBatch) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    Transition t = queue.poll(left, TimeUnit.NANOSECONDS);
+                    if (t == null) break;
+                    batch.add(t);
+                }
+                queue.drainTo(batch, maxBatch - batch.size());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Transition> batch) {
+        batchSizes.update(batch.size());
+        boolean[] applied;
+        try (Timer.Context ignored = flushes.time()) {
+            applied = writeBatch(batch);
+        } catch (SQLException e) {
+            LOG.warn("Batched transition write failed, writing one by one size={}", batch.size(), e);
+            applied = writeEach(batch);
+        }
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            Transition t = batch.get(i);
+            if (applied[i]) store.applied(t);
+            t.applied.complete(applied[i]);
+            Patch p = unflushed.get(t.id);
+            if (p != null && p.seq == t.seq) p.storedAtMs = now;
+        }
+    }
+
+    // Overlaying only ever moves a row forward, so a stored patch lingering a little is harmless
+    private void pruneStored() {
+        long cutoff = System.currentTimeMillis() - STORED_GRACE_MS;
+        for (Map.Entry<String, Patch> e : unflushed.entrySet()) {
+            long storedAt = e.getValue().storedAtMs;
+            if (storedAt != 0 && storedAt < cutoff) unflushed.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    // RUNNING updates first, then terminal ones; all committed together
+    private boolean[] writeBatch(List<Transition> batch) throws SQLException {
+        boolean[] applied = new boolean[batch.size()];
+        try (Connection c = store.conn()) {
+            c.setAutoCommit(false);
+            try {
+                for (QueryStatus status : new QueryStatus[]{QueryStatus.RUNNING, QueryStatus.SUCCEEDED, QueryStatus.FAILED}) {
+                    List<Integer> idx = new ArrayList<>();
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (batch.get(i).status == status) idx.add(i);
+                    }
+                    if (idx.isEmpty()) continue;
+                    try (PreparedStatement ps = c.prepareStatement(batch.get(idx.get(0)).sql())) {
+                        for (int i : idx) {
+                            batch.get(i).bind(ps);
+                            ps.addBatch();
+                        }
+                        int[] counts = ps.executeBatch();
+                        for (int k = 0; k < counts.length; k++) applied[idx.get(k)] = counts[k] > 0;
+                    }
+                }
+                c.commit();
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+        return applied;
+    }
+
+    // Fallback that keeps one bad transition from losing the rest of the batch
+    private boolean[] writeEach(List<Transition> batch) {
+        boolean[] applied = new boolean[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Transition t = batch.get(i);
+            try (Connection c = store.conn()) {
+                applied[i] = t.applyTo(c);
+            } catch (SQLException e) {
+                LOG.warn("Transition write failed queryId={} status={}", t.id, t.status, e);
+                t.applied.completeExceptionally(e);
+            }
+        }
+        return applied;
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.resources;
+
+import org.example.dto.BatchQueryResponse;
+import org.example.dto.BatchSubmitRequest;
+import org.example.service.QueryService;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.SecurityContext;
+
+@Path("/queries:batch")
+@Produces(MediaType.APPLICATION_JSON)
+public class QueryBatchResource {
+    private final QueryService service;
+
+    public QueryBatchResource(QueryService service) {
+        this.service = service;
+    }
+
+    private static String userId(SecurityContext sc) {
+        return (sc.getUserPrincipal() == null) ? "" : sc.getUserPrincipal().getName();
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public BatchQueryResponse submit(@Context SecurityContext sc,
+                                     BatchSubmitRequest req,
+                                     @HeaderParam("Idempotency-Key") String idempotencyKey) throws Exception {
+        return service.submitBatch(userId(sc), (req == null) ? null : req.getQueries(), idempotencyKey);
+    }
+}
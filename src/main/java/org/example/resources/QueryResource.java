@@ -1,9 +1,12 @@
 package org.example.resources;
 
+import org.example.dto.BatchQueryResponse;
 import org.example.dto.QueryResponse;
+import org.example.dto.ResultFormat;
 import org.example.dto.SubmitQueryRequest;
 import org.example.service.QueryService;
 
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
@@ -11,11 +14,17 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
+import java.util.ArrayList;
+import java.util.List;
 
 @Path("/queries")
 @Produces(MediaType.APPLICATION_JSON)
@@ -39,22 +48,56 @@ public class QueryResource {
         if (sql == null || sql.trim().isEmpty()) {
             throw new WebApplicationException("sql required", 400);
         }
-        return service.submit(userId(sc), sql, idempotencyKey);
+        return service.submit(userId(sc), sql, req.getParams(), ResultFormat.parse(req.getFormat()), idempotencyKey);
     }
 
+    // ?ids=a,b,c (or repeated ids=) returns the status of each with one lookup
+    @GET
+    public BatchQueryResponse statuses(@Context SecurityContext sc,
+                                       @QueryParam("ids") List<String> ids) throws Exception {
+        List<String> all = new ArrayList<>();
+        for (String param : ids) {
+            for (String id : param.split(",")) {
+                if (!id.trim().isEmpty()) all.add(id.trim());
+            }
+        }
+        return service.statuses(userId(sc), all);
+    }
+
+    // ?wait=30s holds the request until the status changes (long-poll)
     @GET
     @Path("/{id}")
-    public QueryResponse status(@Context SecurityContext sc,
-                                @PathParam("id") String id) throws Exception {
-        return service.status(userId(sc), id);
+    public void status(@Context SecurityContext sc,
+                       @PathParam("id") String id,
+                       @QueryParam("wait") String wait,
+                       @Suspended AsyncResponse async) throws Exception {
+        service.awaitStatus(userId(sc), id, QueryService.waitMillis(wait), async);
+    }
+
+    @GET
+    @Path("/{id}/events")
+    @Produces("text/event-stream")
+    public Response events(@Context SecurityContext sc,
+                           @PathParam("id") String id) throws Exception {
+        return Response.ok(service.events(userId(sc), id))
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .build();
     }
 
     @GET
     @Path("/{id}/results")
-    @Produces("application/x-ndjson")
+    @Produces({"application/x-ndjson", "application/vnd.grepr.columnar", "text/csv"})
     public Response results(@Context SecurityContext sc,
-                            @PathParam("id") String id) throws Exception {
-        return service.results(userId(sc), id);
+                            @PathParam("id") String id,
+                            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+                            @HeaderParam("Range") String range,
+                            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                            @QueryParam("offset") Long offset,
+                            @QueryParam("limit") Long limit,
+                            @QueryParam("follow") boolean follow,
+                            @Context HttpServletResponse response) throws Exception {
+        if (follow) return service.follow(userId(sc), id);
+        return service.results(userId(sc), id, ifNoneMatch, range, acceptEncoding, offset, limit, response);
     }
 
     @POST
@@ -0,0 +1,85 @@
+package org.example.service;
+
+import org.example.dto.QueryStatus;
+import org.example.repo.QueryRepo;
+import org.example.repo.TransitionListener;
+
+import javax.ws.rs.WebApplicationException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// In-memory view of PENDING queries used for admission control.
+// Seeded from the queries table at startup and kept current by QueryRepo transitions,
+// so submit never has to count rows in the database. Running limits are enforced at
+// dispatch time by FairScheduler; submit only bounds how much a user may queue.
+public class AdmissionLedger implements TransitionListener {
+    private final int maxPendingPerUser;
+
+    // Every PENDING query this process knows about
+    private final ConcurrentHashMap<String, QueryStatus> pendingIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicInteger> pendingByUser = new ConcurrentHashMap<>();
+
+    public AdmissionLedger(int maxPendingPerUser) {
+        this.maxPendingPerUser = maxPendingPerUser;
+    }
+
+    public void seed(QueryRepo store) throws Exception {
+        for (QueryRepo.Row r : store.active()) {
+            onTransition(r.id, r.userId, r.status);
+        }
+    }
+
+    // Reserves a pending slot for a new query, or throws 429 when a limit is hit
+    public void admit(String userId, String id) {
+        AtomicInteger pending = pending(userId);
+        while (true) {
+            int p = pending.get();
+            if (p >= maxPendingPerUser) {
+                throw new WebApplicationException("too many pending queries", 429);
+            }
+            if (pending.compareAndSet(p, p + 1)) break;
+        }
+        pendingIds.put(id, QueryStatus.PENDING);
+    }
+
+    // Reserves pending slots for all ids or, when they don't all fit, for none
+    public void admitAll(String userId, List<String> ids) {
+        AtomicInteger pending = pending(userId);
+        int n = ids.size();
+        while (true) {
+            int p = pending.get();
+            if (p + n > maxPendingPerUser) {
+                throw new WebApplicationException("too many pending queries", 429);
+            }
+            if (pending.compareAndSet(p, p + n)) break;
+        }
+        for (String id : ids) pendingIds.put(id, QueryStatus.PENDING);
+    }
+
+    // Gives back a reservation whose row was never inserted
+    public void release(String userId, String id) {
+        if (pendingIds.remove(id, QueryStatus.PENDING)) {
+            pending(userId).decrementAndGet();
+        }
+    }
+
+    @Override
+    public void onTransition(String id, String userId, QueryStatus status) {
+        AtomicInteger pending = pending(userId);
+        // compute() serializes transitions of the same query id
+        pendingIds.compute(id, (k, prev) -> {
+            if (prev == status) return prev;
+            if (prev == QueryStatus.PENDING) pending.decrementAndGet();
+            if (status == QueryStatus.PENDING) {
+                pending.incrementAndGet();
+                return status;
+            }
+            return null;
+        });
+    }
+
+    private AtomicInteger pending(String userId) {
+        return pendingByUser.computeIfAbsent(userId, k -> new AtomicInteger());
+    }
+}
@@ -0,0 +1,95 @@
+package org.example.service;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.example.repo.ChangeFeed;
+import org.example.repo.QueryRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Distributed dispatch loop of one node. Every interval it
+//  - replays status changes made by other nodes (cancels, admission counts),
+//  - renews the lease on every job this node holds and returns jobs of nodes whose lease
+//    ran out to PENDING (a crashed node's work is picked up again, RUNNING ones re-run),
+//  - claims as many unclaimed PENDING rows as its local scheduler has room for.
+// Claimed rows then go through the node's FairScheduler like local submissions.
+public class ClusterDispatcher implements Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterDispatcher.class);
+
+    private final QueryRepo store;
+    private final ChangeFeed feed;
+    private final QueryService service;
+    private final FairScheduler scheduler;
+    private final String nodeId;
+    private final long leaseMs;
+    private final int batchSize;
+    private final long intervalMs;
+    private final int capacity;
+
+    private final Meter claimed;
+    private final Meter requeued;
+
+    private ScheduledExecutorService timer;
+    private long lastHeartbeatMs;
+
+    public ClusterDispatcher(QueryRepo store, ChangeFeed feed, QueryService service, FairScheduler scheduler,
+                             String nodeId, long leaseMs, int batchSize, long intervalMs, int capacity,
+                             MetricRegistry metrics) {
+        this.store = store;
+        this.feed = feed;
+        this.service = service;
+        this.scheduler = scheduler;
+        this.nodeId = nodeId;
+        this.leaseMs = leaseMs;
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        this.capacity = capacity;
+        this.claimed = metrics.meter(MetricRegistry.name(ClusterDispatcher.class, "claimed"));
+        this.requeued = metrics.meter(MetricRegistry.name(ClusterDispatcher.class, "requeued"));
+    }
+
+    @Override
+    public void start() throws Exception {
+        // Whatever this node held before a restart can be taken again right away
+        requeued.mark(store.requeueAbandoned(nodeId));
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(this::tick, 0, intervalMs, TimeUnit.MILLISECONDS);
+        LOG.info("Distributed dispatch started nodeId={}", nodeId);
+    }
+
+    @Override
+    public void stop() {
+        if (timer != null) timer.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            feed.poll();
+
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeatMs >= leaseMs / 3) {
+                store.renewLeases(nodeId, leaseMs);
+                requeued.mark(store.requeueAbandoned(null));
+                lastHeartbeatMs = now;
+            }
+
+            int room = Math.min(batchSize, capacity - scheduler.queued());
+            if (room <= 0) return;
+            for (QueryRepo.Row row : store.claim(nodeId, room, leaseMs)) {
+                claimed.mark();
+                try {
+                    service.enqueue(row);
+                } catch (Exception e) {
+                    LOG.warn("Enqueueing claimed query failed queryId={}", row.id, e);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warn("Dispatch tick failed", e);
+        }
+    }
+}
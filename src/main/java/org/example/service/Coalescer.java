@@ -0,0 +1,84 @@
+package org.example.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Single-flight registry for identical queries. A submission whose result cache key matches a
+// queued or running execution joins it instead of enqueueing another job; every subscriber
+// keeps its own query id and row, and receives the shared result and terminal status. The
+// statement is only cancelled once every subscriber has cancelled.
+final class Coalescer {
+    enum Join {
+        // No execution for the key yet; the caller's job runs it
+        LEAD,
+        // Joined an execution that hasn't started; the worker will move the row to RUNNING
+        QUEUED,
+        // Joined an execution that is already running; the caller moves its own row to RUNNING
+        RUNNING
+    }
+
+    private static final class Execution {
+        final String key;
+        final String leaderId;
+        // query id -> user id for subscribers that haven't cancelled, leader included
+        final LinkedHashMap<String, String> live = new LinkedHashMap<>();
+        boolean started;
+
+        Execution(String key, String leaderId) {
+            this.key = key;
+            this.leaderId = leaderId;
+        }
+    }
+
+    // Guarded by this
+    private final Map<String, Execution> byKey = new HashMap<>();
+    private final Map<String, Execution> byLeader = new HashMap<>();
+    private final Map<String, Execution> byQuery = new HashMap<>();
+
+    synchronized Join join(String key, String queryId, String userId) {
+        Execution ex = byKey.get(key);
+        if (ex == null) {
+            ex = new Execution(key, queryId);
+            byKey.put(key, ex);
+            byLeader.put(queryId, ex);
+            ex.live.put(queryId, userId);
+            byQuery.put(queryId, ex);
+            return Join.LEAD;
+        }
+        ex.live.put(queryId, userId);
+        byQuery.put(queryId, ex);
+        return ex.started ? Join.RUNNING : Join.QUEUED;
+    }
+
+    // Marks the leader's execution as started. Returns the live subscribers other than the
+    // leader, or null when the job was not coalesced.
+    synchronized Map<String, String> start(String leaderId) {
+        Execution ex = byLeader.get(leaderId);
+        if (ex == null) return null;
+        ex.started = true;
+        Map<String, String> followers = new LinkedHashMap<>(ex.live);
+        followers.remove(leaderId);
+        return followers;
+    }
+
+    // Drops a cancelled subscriber. Returns the id whose statement should be cancelled:
+    // the query itself when not coalesced, the leader when this was the last subscriber,
+    // or null while others still wait for the result.
+    synchronized String leave(String queryId) {
+        Execution ex = byQuery.remove(queryId);
+        if (ex == null) return queryId;
+        ex.live.remove(queryId);
+        return ex.live.isEmpty() ? ex.leaderId : null;
+    }
+
+    // Closes the execution to new subscribers and returns everyone still waiting for it
+    // (leader included if it didn't cancel), or null when the job was not coalesced.
+    synchronized Map<String, String> finish(String leaderId) {
+        Execution ex = byLeader.remove(leaderId);
+        if (ex == null) return null;
+        byKey.remove(ex.key);
+        for (String id : ex.live.keySet()) byQuery.remove(id);
+        return new LinkedHashMap<>(ex.live);
+    }
+}
@@ -0,0 +1,308 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+// Writes a result set in a batched columnar binary layout (Arrow IPC in spirit, without
+// the Flatbuffers framing). All integers are little-endian.
+//
+//   magic    "GRCOL1\0\0"
+//   schema   int32 columnCount, then per column: int16 nameLength, UTF-8 name, int8 type
+//   batch    int32 rowCount (> 0), then per column:
+//              validity bitmap, (rowCount + 7) / 8 bytes, bit set = value present
+//              INT32/DATE32: rowCount * 4 bytes; INT64/TIMESTAMP_MICROS/FLOAT64: rowCount * 8 bytes
+//              BOOL: bitmap of (rowCount + 7) / 8 bytes
+//              UTF8/DECIMAL: int32 offsets[rowCount + 1], then offsets[rowCount] bytes of UTF-8
+//   end      int32 0, then int64 totalRows
+final class ColumnarEncoder {
+    static final byte[] MAGIC = {'G', 'R', 'C', 'O', 'L', '1', 0, 0};
+
+    static final byte INT32 = 1;
+    static final byte INT64 = 2;
+    static final byte FLOAT64 = 3;
+    static final byte BOOL = 4;
+    static final byte UTF8 = 5;
+    // decimal rendered as Postgres' text (plain digits, or NaN/Infinity) so no precision is lost
+    static final byte DECIMAL = 6;
+    // days since 1970-01-01
+    static final byte DATE32 = 7;
+    // microseconds since the epoch, UTC
+    static final byte TIMESTAMP_MICROS = 8;
+
+    private final int cols;
+    private final byte[] types;
+    private final String[] names;
+    private final boolean[] withZone;
+    private final int batchRows;
+
+    // Per-column vectors for the current batch
+    private final long[][] fixed;
+    private final byte[][] validity;
+    private final int[][] offsets;
+    private final byte[][] varData;
+
+    private int n;
+    private long totalRows;
+    private byte[] out = new byte[64 * 1024];
+    private int len;
+
+    ColumnarEncoder(ResultSetMetaData md, int batchRows) throws SQLException {
+        this.cols = md.getColumnCount();
+        this.batchRows = batchRows;
+        this.types = new byte[cols];
+        this.names = new String[cols];
+        this.withZone = new boolean[cols];
+        this.fixed = new long[cols][];
+        this.validity = new byte[cols][];
+        this.offsets = new int[cols][];
+        this.varData = new byte[cols][];
+
+        for (int i = 0; i < cols; i++) {
+            String typeName = md.getColumnTypeName(i + 1);
+            types[i] = type(md.getColumnType(i + 1), typeName);
+            names[i] = md.getColumnLabel(i + 1);
+            withZone[i] = "timestamptz".equalsIgnoreCase(typeName);
+            validity[i] = new byte[(batchRows + 7) / 8];
+            if (types[i] == UTF8 || types[i] == DECIMAL) {
+                offsets[i] = new int[batchRows + 1];
+                varData[i] = new byte[4096];
+            } else {
+                fixed[i] = new long[batchRows];
+            }
+        }
+    }
+
+    void writeSchema(OutputStream os) throws IOException {
+        len = 0;
+        putBytes(MAGIC, 0, MAGIC.length);
+        putInt(cols);
+        for (int i = 0; i < cols; i++) {
+            byte[] name = names[i].getBytes(StandardCharsets.UTF_8);
+            putShort(name.length);
+            putBytes(name, 0, name.length);
+            putByte(types[i]);
+        }
+        os.write(out, 0, len);
+    }
+
+    // Appends the current row to the batch; a full batch is written to os
+    void addRow(ResultSet rs, OutputStream os) throws SQLException, IOException {
+        for (int i = 0; i < cols; i++) {
+            int col = i + 1;
+            boolean present;
+            switch (types[i]) {
+                case INT32: {
+                    fixed[i][n] = rs.getInt(col);
+                    present = !rs.wasNull();
+                    break;
+                }
+                case INT64: {
+                    fixed[i][n] = rs.getLong(col);
+                    present = !rs.wasNull();
+                    break;
+                }
+                case FLOAT64: {
+                    fixed[i][n] = Double.doubleToRawLongBits(rs.getDouble(col));
+                    present = !rs.wasNull();
+                    break;
+                }
+                case BOOL: {
+                    fixed[i][n] = rs.getBoolean(col) ? 1 : 0;
+                    present = !rs.wasNull();
+                    break;
+                }
+                case DATE32: {
+                    LocalDate d = rs.getObject(col, LocalDate.class);
+                    present = d != null;
+                    fixed[i][n] = present ? d.toEpochDay() : 0;
+                    break;
+                }
+                case TIMESTAMP_MICROS: {
+                    long seconds;
+                    int nanos;
+                    if (withZone[i]) {
+                        OffsetDateTime t = rs.getObject(col, OffsetDateTime.class);
+                        present = t != null;
+                        seconds = present ? t.toEpochSecond() : 0;
+                        nanos = present ? t.getNano() : 0;
+                    } else {
+                        LocalDateTime t = rs.getObject(col, LocalDateTime.class);
+                        present = t != null;
+                        seconds = present ? t.toEpochSecond(ZoneOffset.UTC) : 0;
+                        nanos = present ? t.getNano() : 0;
+                    }
+                    fixed[i][n] = seconds * 1_000_000L + nanos / 1000;
+                    break;
+                }
+                default: {
+                    String v = rs.getString(col);
+                    present = v != null;
+                    appendVar(i, v);
+                }
+            }
+            if (present) validity[i][n >> 3] |= (byte) (1 << (n & 7));
+        }
+
+        n++;
+        totalRows++;
+        if (n == batchRows) writeBatch(os);
+    }
+
+    // Writes the last partial batch and the end marker
+    void finish(OutputStream os) throws IOException {
+        if (n > 0) writeBatch(os);
+        len = 0;
+        putInt(0);
+        putLong(totalRows);
+        os.write(out, 0, len);
+    }
+
+    private void writeBatch(OutputStream os) throws IOException {
+        len = 0;
+        int bitmapBytes = (n + 7) / 8;
+        putInt(n);
+        for (int i = 0; i < cols; i++) {
+            putBytes(validity[i], 0, bitmapBytes);
+            switch (types[i]) {
+                case INT32:
+                case DATE32:
+                    for (int r = 0; r < n; r++) putInt((int) fixed[i][r]);
+                    break;
+                case INT64:
+                case FLOAT64:
+                case TIMESTAMP_MICROS:
+                    for (int r = 0; r < n; r++) putLong(fixed[i][r]);
+                    break;
+                case BOOL: {
+                    ensure(bitmapBytes);
+                    for (int b = 0; b < bitmapBytes; b++) out[len + b] = 0;
+                    for (int r = 0; r < n; r++) {
+                        if (fixed[i][r] != 0) out[len + (r >> 3)] |= (byte) (1 << (r & 7));
+                    }
+                    len += bitmapBytes;
+                    break;
+                }
+                default: {
+                    int[] off = offsets[i];
+                    for (int r = 0; r <= n; r++) putInt(off[r]);
+                    putBytes(varData[i], 0, off[n]);
+                }
+            }
+            Arrays.fill(validity[i], (byte) 0);
+        }
+        os.write(out, 0, len);
+        n = 0;
+    }
+
+    // Appends s as UTF-8 to the column's data vector; null leaves a zero-length slot
+    private void appendVar(int i, String s) {
+        int[] off = offsets[i];
+        int pos = off[n];
+        if (s != null) {
+            int sl = s.length();
+            byte[] data = varData[i];
+            if (pos + sl * 3 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, pos + sl * 3));
+                varData[i] = data;
+            }
+            for (int k = 0; k < sl; k++) {
+                char ch = s.charAt(k);
+                if (ch < 0x80) {
+                    data[pos++] = (byte) ch;
+                } else if (ch < 0x800) {
+                    data[pos++] = (byte) (0xC0 | (ch >> 6));
+                    data[pos++] = (byte) (0x80 | (ch & 0x3F));
+                } else if (Character.isHighSurrogate(ch) && k + 1 < sl && Character.isLowSurrogate(s.charAt(k + 1))) {
+                    int cp = Character.toCodePoint(ch, s.charAt(++k));
+                    data[pos++] = (byte) (0xF0 | (cp >> 18));
+                    data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(ch)) {
+                    data[pos++] = '?';
+                } else {
+                    data[pos++] = (byte) (0xE0 | (ch >> 12));
+                    data[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (ch & 0x3F));
+                }
+            }
+        }
+        off[n + 1] = pos;
+    }
+
+    private static byte type(int sqlType, String typeName) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return INT32;
+            case Types.BIGINT:
+                return INT64;
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return FLOAT64;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return DECIMAL;
+            case Types.BOOLEAN:
+                return BOOL;
+            case Types.BIT:
+                return "bool".equalsIgnoreCase(typeName) ? BOOL : UTF8;
+            case Types.DATE:
+                return DATE32;
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return TIMESTAMP_MICROS;
+            default:
+                return UTF8;
+        }
+    }
+
+    private void putByte(int v) {
+        ensure(1);
+        out[len++] = (byte) v;
+    }
+
+    private void putShort(int v) {
+        ensure(2);
+        out[len++] = (byte) v;
+        out[len++] = (byte) (v >> 8);
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        out[len++] = (byte) v;
+        out[len++] = (byte) (v >> 8);
+        out[len++] = (byte) (v >> 16);
+        out[len++] = (byte) (v >> 24);
+    }
+
+    private void putLong(long v) {
+        ensure(8);
+        for (int k = 0; k < 8; k++) {
+            out[len++] = (byte) (v >> (8 * k));
+        }
+    }
+
+    private void putBytes(byte[] b, int off, int n) {
+        ensure(n);
+        System.arraycopy(b, off, out, len, n);
+        len += n;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra <= out.length) return;
+        out = Arrays.copyOf(out, Math.max(out.length * 2, len + extra));
+    }
+}
@@ -0,0 +1,151 @@
+package org.example.service;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Asks the planner for a query's estimated rows and cost before it is admitted.
+// Queries above maxCost are rejected; queries above lowPriorityCost go to the scheduler's
+// low-priority lane. A query EXPLAIN cannot plan is admitted without an estimate and
+// reports its error when it executes, as before.
+public class CostEstimator {
+    private static final Logger LOG = LoggerFactory.getLogger(CostEstimator.class);
+
+    public static class Estimate {
+        public final long rows;
+        public final double cost;
+
+        Estimate(long rows, double cost) {
+            this.rows = rows;
+            this.cost = cost;
+        }
+    }
+
+    private final DataSource ds;
+    private final int timeoutMs;
+    private final double maxCost;
+    private final double lowPriorityCost;
+    private final ObjectMapper mapper;
+
+    private final Meter rejected;
+    private final Meter lowPriority;
+    private final Meter unplanned;
+
+    public CostEstimator(DataSource ds, int timeoutMs, double maxCost, double lowPriorityCost,
+                         ObjectMapper mapper, MetricRegistry metrics) {
+        this.ds = ds;
+        this.timeoutMs = timeoutMs;
+        this.maxCost = maxCost;
+        this.lowPriorityCost = lowPriorityCost;
+        this.mapper = mapper;
+        this.rejected = metrics.meter(MetricRegistry.name(CostEstimator.class, "rejected"));
+        this.lowPriority = metrics.meter(MetricRegistry.name(CostEstimator.class, "lowPriority"));
+        this.unplanned = metrics.meter(MetricRegistry.name(CostEstimator.class, "unplanned"));
+    }
+
+    public boolean enabled() {
+        return timeoutMs > 0;
+    }
+
+    // Estimates the query and applies the admission thresholds; null when no estimate is available
+    public Estimate admit(String sql, List<Object> params) {
+        if (!enabled()) return null;
+        return check(explain(Collections.singletonList(sql), Collections.singletonList(params)).get(0));
+    }
+
+    // Same for a batch, explained over one connection; rejects the whole batch if any query
+    // is too expensive
+    public List<Estimate> admitAll(List<String> sqls, List<List<Object>> params) {
+        List<Estimate> out = new ArrayList<>(sqls.size());
+        if (!enabled()) {
+            for (int i = 0; i < sqls.size(); i++) out.add(null);
+            return out;
+        }
+        List<JsonNode> plans = explain(sqls, params);
+        for (int i = 0; i < plans.size(); i++) {
+            try {
+                out.add(check(plans.get(i)));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("queries[" + i + "]: " + e.getMessage());
+            }
+        }
+        return out;
+    }
+
+    private Estimate check(JsonNode plan) {
+        if (plan == null) return null;
+
+        double cost = plan.path("Total Cost").asDouble();
+        long rows = plan.path("Plan Rows").asLong();
+        if (maxCost > 0 && cost > maxCost) {
+            rejected.mark();
+            throw new IllegalArgumentException(
+                    String.format("query too expensive: estimated cost %.0f exceeds %.0f", cost, maxCost));
+        }
+        if (lowPriority(cost)) lowPriority.mark();
+        return new Estimate(rows, cost);
+    }
+
+    // Whether a stored estimate belongs in the low-priority lane
+    public boolean lowPriority(Double cost) {
+        return cost != null && lowPriorityCost > 0 && cost > lowPriorityCost;
+    }
+
+    // Top plan node of each query's EXPLAIN (FORMAT JSON): [{"Plan": {"Total Cost": .., "Plan Rows": ..}}],
+    // null where the query couldn't be planned. Templates are planned with their parameter values.
+    private List<JsonNode> explain(List<String> sqls, List<List<Object>> params) {
+        List<JsonNode> plans = new ArrayList<>(sqls.size());
+        try (Connection c = ds.getConnection()) {
+            c.setAutoCommit(false);
+            try (Statement st = c.createStatement()) {
+                st.execute("set local statement_timeout = " + timeoutMs);
+                for (int i = 0; i < sqls.size(); i++) {
+                    // A failed EXPLAIN aborts the transaction; the savepoint keeps it usable
+                    Savepoint sp = c.setSavepoint();
+                    try {
+                        plans.add(explain(c, sqls.get(i), params.get(i)));
+                    } catch (SQLException | IOException e) {
+                        c.rollback(sp);
+                        unplanned.mark();
+                        LOG.debug("EXPLAIN failed, admitting without estimate", e);
+                        plans.add(null);
+                    }
+                }
+            } finally {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+            unplanned.mark();
+            LOG.debug("EXPLAIN unavailable, admitting without estimate", e);
+        }
+        while (plans.size() < sqls.size()) plans.add(null);
+        return plans;
+    }
+
+    private JsonNode explain(Connection c, String sql, List<Object> params) throws SQLException, IOException {
+        try (PreparedStatement ps = c.prepareStatement("explain (format json) " + sql)) {
+            if (params != null) SqlParams.bind(ps, params);
+            try (ResultSet rs = ps.executeQuery()) {
+                String json = rs.next() ? rs.getString(1) : null;
+                if (json == null) return null;
+                JsonNode plan = mapper.readTree(json).path(0).path("Plan");
+                return plan.isMissingNode() ? null : plan;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package org.example.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Queue of pending jobs with one sub-queue per user, dispatched by deficit round robin.
+// Each user's turn earns weight credit and a job costs its expected runtime in quanta
+// (1 to MAX_COST), so users with queued work get execution time in proportion to their
+// weight however many jobs they queue, and a user sending short queries gets more of them
+// through than one sending long scans. Within a user's queue the job with the shortest
+// expected runtime goes first, less aging * its wait so far, so a long job is never starved.
+// Running limits (per user and global) are enforced here, at dispatch time: a user at its
+// limit is skipped until one of its jobs finishes. Queue wait is recorded per user, for the
+// maxTrackedUsers most recently dispatched users; older users' timers are removed from the
+// metric registry so it doesn't grow with every user ever seen.
+//
+// Jobs the planner estimated as expensive wait in a separate low-priority lane. That lane is
+// only served when the normal lane has nothing it may dispatch, or when no low-priority job
+// is running at all, so big scans cannot starve short queries nor be starved by them; at most
+// maxRunningLowPriority of them run at once.
+public class FairScheduler {
+    // Caps how many turns a user may need to save up for one expensive job
+    private static final long MAX_COST = 8;
+
+    private static final class Entry {
+        final QueryWorker.Job job;
+        final long enqueuedAt;
+        final long cost;
+
+        Entry(QueryWorker.Job job, long enqueuedAt, long cost) {
+            this.job = job;
+            this.enqueuedAt = enqueuedAt;
+            this.cost = cost;
+        }
+    }
+
+    private static final class UserQueue {
+        final String userId;
+        final long weight;
+        final ArrayDeque<Entry> jobs = new ArrayDeque<>();
+        long deficit;
+        // Whether the user already received its quantum for the current turn
+        boolean credited;
+
+        UserQueue(String userId, long weight) {
+            this.userId = userId;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Lane {
+        final Map<String, UserQueue> users = new HashMap<>();
+        final ArrayDeque<UserQueue> ring = new ArrayDeque<>();
+        int running;
+    }
+
+    private final int capacity;
+    private final int maxRunningPerUser;
+    private final int maxRunningGlobal;
+    private final int maxRunningLowPriority;
+    private final long quantumMs;
+    private final double aging;
+    private final Map<String, Integer> weights;
+    private final MetricRegistry metrics;
+    // Per-user queue-wait timers in access order; guarded by itself
+    private final LinkedHashMap<String, Timer> waitTimers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    // Guarded by lock
+    private final Lane normal = new Lane();
+    private final Lane low = new Lane();
+    private final Map<String, Integer> runningByUser = new HashMap<>();
+    private int queued;
+    private int running;
+
+    public FairScheduler(int capacity, int maxRunningPerUser, int maxRunningGlobal, int maxRunningLowPriority,
+                         long quantumMs, double aging, Map<String, Integer> weights, int maxTrackedUsers,
+                         MetricRegistry metrics) {
+        this.capacity = capacity;
+        this.maxRunningPerUser = maxRunningPerUser;
+        this.maxRunningGlobal = maxRunningGlobal;
+        this.maxRunningLowPriority = maxRunningLowPriority;
+        this.quantumMs = Math.max(quantumMs, 1);
+        this.aging = aging;
+        this.weights = weights;
+        this.metrics = metrics;
+        int maxTimers = Math.max(maxTrackedUsers, 1);
+        this.waitTimers = new LinkedHashMap<String, Timer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Timer> eldest) {
+                if (size() <= maxTimers) return false;
+                metrics.remove(waitTimerName(eldest.getKey()));
+                return true;
+            }
+        };
+    }
+
+    // Enqueues a job; false when the scheduler is full
+    public boolean offer(QueryWorker.Job job) {
+        lock.lock();
+        try {
+            if (queued >= capacity) return false;
+            Lane lane = job.lowPriority ? low : normal;
+            UserQueue u = lane.users.get(job.userId);
+            if (u == null) {
+                Integer w = weights.get(job.userId);
+                u = new UserQueue(job.userId, (w == null || w < 1) ? 1 : w);
+                lane.users.put(job.userId, u);
+                lane.ring.addLast(u);
+            }
+            long cost = Math.min(MAX_COST, Math.max(1, (job.expectedMs + quantumMs - 1) / quantumMs));
+            u.jobs.addLast(new Entry(job, System.nanoTime(), cost));
+            queued++;
+            changed.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until some user has a job it is allowed to run
+    public QueryWorker.Job take() throws InterruptedException {
+        Entry e;
+        lock.lockInterruptibly();
+        try {
+            while ((e = pick()) == null) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+        waitTimer(e.job.userId).update(System.nanoTime() - e.enqueuedAt, TimeUnit.NANOSECONDS);
+        return e.job;
+    }
+
+    // Must be called once a job returned by take() has finished
+    public void done(QueryWorker.Job job) {
+        lock.lock();
+        try {
+            running--;
+            (job.lowPriority ? low : normal).running--;
+            Integer n = runningByUser.get(job.userId);
+            if (n != null) {
+                if (n <= 1) runningByUser.remove(job.userId);
+                else runningByUser.put(job.userId, n - 1);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry pick() {
+        if (running >= maxRunningGlobal) return null;
+
+        boolean lowAllowed = low.running < maxRunningLowPriority;
+        if (lowAllowed && low.running == 0) {
+            Entry e = pick(low);
+            if (e != null) return e;
+        }
+        Entry e = pick(normal);
+        if (e == null && lowAllowed) e = pick(low);
+        return e;
+    }
+
+    private Entry pick(Lane lane) {
+        ArrayDeque<UserQueue> ring = lane.ring;
+        long now = System.nanoTime();
+        // One full pass over the ring is enough: every eligible user is credited on its visit
+        for (int visits = ring.size(); visits > 0; visits--) {
+            UserQueue u = ring.peekFirst();
+            if (runningOf(u.userId) >= maxRunningPerUser) {
+                ring.addLast(ring.pollFirst());
+                continue;
+            }
+            if (!u.credited) {
+                u.deficit += u.weight;
+                u.credited = true;
+            }
+            Entry e = shortestAged(u.jobs, now);
+            if (u.deficit >= e.cost) {
+                u.jobs.remove(e);
+                u.deficit -= e.cost;
+                lane.running++;
+                running++;
+                queued--;
+                runningByUser.put(u.userId, runningOf(u.userId) + 1);
+                if (u.jobs.isEmpty()) {
+                    ring.pollFirst();
+                    lane.users.remove(u.userId);
+                }
+                return e;
+            }
+            // Credit used up: the turn passes to the next user
+            u.credited = false;
+            ring.addLast(ring.pollFirst());
+            visits++;
+        }
+        return null;
+    }
+
+    // Shortest expected runtime first, each job's wait discounted at the aging rate
+    private Entry shortestAged(ArrayDeque<Entry> jobs, long now) {
+        Entry best = null;
+        double bestScore = 0;
+        for (Entry e : jobs) {
+            double waitedMs = (now - e.enqueuedAt) / 1_000_000.0;
+            double score = e.job.expectedMs - aging * waitedMs;
+            if (best == null || score < bestScore) {
+                best = e;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private int runningOf(String userId) {
+        Integer n = runningByUser.get(userId);
+        return (n == null) ? 0 : n;
+    }
+
+    private Timer waitTimer(String userId) {
+        synchronized (waitTimers) {
+            Timer t = waitTimers.get(userId);
+            if (t == null) {
+                t = metrics.timer(waitTimerName(userId));
+                waitTimers.put(userId, t);
+            }
+            return t;
+        }
+    }
+
+    private static String waitTimerName(String userId) {
+        return MetricRegistry.name(FairScheduler.class, "queueWait", userId);
+    }
+}
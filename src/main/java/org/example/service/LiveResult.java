@@ -0,0 +1,61 @@
+package org.example.service;
+
+import java.io.File;
+
+// Progress of a result file that is still being written. Once someone follows the query the
+// worker flushes at row boundaries (finishing the gzip member, if any) and publishes how many
+// bytes and rows are on disk, so a follower can stream everything up to that mark while the
+// query runs. Nothing is flushed early for queries nobody follows.
+final class LiveResult {
+    static final class Mark {
+        final File file;
+        final long bytes;
+        final long rows;
+
+        Mark(File file, long bytes, long rows) {
+            this.file = file;
+            this.bytes = bytes;
+            this.rows = rows;
+        }
+    }
+
+    private volatile boolean watched;
+    // Guarded by this
+    private Mark mark = new Mark(null, 0, 0);
+
+    boolean watched() {
+        return watched;
+    }
+
+    void watch() {
+        watched = true;
+    }
+
+    synchronized boolean started() {
+        return mark.file != null;
+    }
+
+    synchronized Mark mark() {
+        return mark;
+    }
+
+    synchronized void start(File file) {
+        mark = new Mark(file, 0, 0);
+        notifyAll();
+    }
+
+    synchronized void publish(long bytes, long rows) {
+        mark = new Mark(mark.file, bytes, rows);
+        notifyAll();
+    }
+
+    // Wakes followers; the query's outcome is in its row
+    synchronized void finish() {
+        notifyAll();
+    }
+
+    // Waits up to ms for data beyond the given byte count
+    synchronized void await(long bytes, long ms) throws InterruptedException {
+        if (mark.bytes <= bytes) wait(ms);
+    }
+}
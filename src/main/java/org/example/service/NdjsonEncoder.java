@@ -0,0 +1,269 @@
+package org.example.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+// Encodes JDBC rows as NDJSON straight into a reusable UTF-8 byte buffer.
+// Column name prefixes are encoded once per result set and primitive columns are read
+// through typed getters, so encoding a row allocates nothing for numeric/boolean/text data.
+final class NdjsonEncoder {
+    private static final int INT = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int FLOAT = 3;
+    private static final int DECIMAL = 4;
+    private static final int BOOL = 5;
+    private static final int STRING = 6;
+    private static final int OTHER = 7;
+
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] LONG_MIN = String.valueOf(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final int cols;
+    private final int[] kinds;
+    // {"label": for the first column, ,"label": for the rest
+    private final byte[][] prefixes;
+
+    private byte[] buf = new byte[4096];
+    private int len;
+
+    NdjsonEncoder(ResultSetMetaData md) throws SQLException {
+        this.cols = md.getColumnCount();
+        this.kinds = new int[cols];
+        this.prefixes = new byte[cols][];
+
+        for (int i = 0; i < cols; i++) {
+            kinds[i] = kind(md.getColumnType(i + 1), md.getColumnTypeName(i + 1));
+
+            len = 0;
+            put(i == 0 ? (byte) '{' : (byte) ',');
+            putString(md.getColumnLabel(i + 1));
+            put((byte) ':');
+            byte[] p = new byte[len];
+            System.arraycopy(buf, 0, p, 0, len);
+            prefixes[i] = p;
+        }
+    }
+
+    // Encodes the current row and writes it to out; returns the number of bytes written
+    int writeRow(ResultSet rs, OutputStream out) throws SQLException, IOException {
+        len = 0;
+        if (cols == 0) put((byte) '{');
+
+        for (int i = 0; i < cols; i++) {
+            put(prefixes[i]);
+            int col = i + 1;
+
+            switch (kinds[i]) {
+                case INT: {
+                    int v = rs.getInt(col);
+                    if (rs.wasNull()) put(NULL); else putLong(v);
+                    break;
+                }
+                case LONG: {
+                    long v = rs.getLong(col);
+                    if (rs.wasNull()) put(NULL); else putLong(v);
+                    break;
+                }
+                case DOUBLE: {
+                    double v = rs.getDouble(col);
+                    if (rs.wasNull()) put(NULL);
+                    else if (Double.isNaN(v) || Double.isInfinite(v)) putString(Double.toString(v));
+                    else putAscii(Double.toString(v));
+                    break;
+                }
+                case FLOAT: {
+                    // float4 printed as a float, not widened (0.1 rather than 0.10000000149011612)
+                    float v = rs.getFloat(col);
+                    if (rs.wasNull()) put(NULL);
+                    else if (Float.isNaN(v) || Float.isInfinite(v)) putString(Float.toString(v));
+                    else putAscii(Float.toString(v));
+                    break;
+                }
+                case DECIMAL: {
+                    // Postgres' own text; getBigDecimal throws on numeric NaN (and Infinity on 14+),
+                    // which JSON has no number for
+                    String v = rs.getString(col);
+                    if (v == null) put(NULL);
+                    else if (v.equals("NaN") || v.endsWith("Infinity")) putString(v);
+                    else putAscii(v);
+                    break;
+                }
+                case BOOL: {
+                    boolean v = rs.getBoolean(col);
+                    if (rs.wasNull()) put(NULL); else put(v ? TRUE : FALSE);
+                    break;
+                }
+                case STRING: {
+                    String v = rs.getString(col);
+                    if (v == null) put(NULL); else putString(v);
+                    break;
+                }
+                default: {
+                    Object v = rs.getObject(col);
+                    if (v == null) put(NULL);
+                    else if (v instanceof Number || v instanceof Boolean) putAscii(v.toString());
+                    else putString(String.valueOf(v));
+                }
+            }
+        }
+
+        put((byte) '}');
+        put((byte) '\n');
+        out.write(buf, 0, len);
+        return len;
+    }
+
+    private static int kind(int sqlType, String typeName) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.REAL:
+                return FLOAT;
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return DOUBLE;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return DECIMAL;
+            case Types.BOOLEAN:
+                return BOOL;
+            case Types.BIT:
+                // Postgres reports bool as BIT; bit(n) strings stay generic
+                return "bool".equalsIgnoreCase(typeName) ? BOOL : OTHER;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return STRING;
+            default:
+                return OTHER;
+        }
+    }
+
+    private void putLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            put(LONG_MIN);
+            return;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[len++] = '-';
+            v = -v;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // digits were written least significant first
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    // For number renderings that are known to be plain ASCII
+    private void putAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+    }
+
+    // Writes s as a quoted JSON string, escaping quotes, backslashes and control characters
+    private void putString(String s) {
+        int n = s.length();
+        ensure(n + 2);
+        buf[len++] = '"';
+
+        for (int i = 0; i < n; i++) {
+            char ch = s.charAt(i);
+            if (ch < 0x80) {
+                if (ch >= 0x20 && ch != '"' && ch != '\\') {
+                    ensure(1);
+                    buf[len++] = (byte) ch;
+                } else {
+                    putEscape(ch);
+                }
+            } else if (ch < 0x800) {
+                ensure(2);
+                buf[len++] = (byte) (0xC0 | (ch >> 6));
+                buf[len++] = (byte) (0x80 | (ch & 0x3F));
+            } else if (Character.isHighSurrogate(ch) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(ch, s.charAt(++i));
+                ensure(4);
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(ch)) {
+                // unpaired surrogate, same replacement String.getBytes(UTF_8) would use
+                ensure(1);
+                buf[len++] = '?';
+            } else {
+                ensure(3);
+                buf[len++] = (byte) (0xE0 | (ch >> 12));
+                buf[len++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (ch & 0x3F));
+            }
+        }
+
+        ensure(1);
+        buf[len++] = '"';
+    }
+
+    private void putEscape(char ch) {
+        ensure(6);
+        buf[len++] = '\\';
+        switch (ch) {
+            case '"': buf[len++] = '"'; return;
+            case '\\': buf[len++] = '\\'; return;
+            case '\n': buf[len++] = 'n'; return;
+            case '\r': buf[len++] = 'r'; return;
+            case '\t': buf[len++] = 't'; return;
+            case '\b': buf[len++] = 'b'; return;
+            case '\f': buf[len++] = 'f'; return;
+            default:
+                buf[len++] = 'u';
+                buf[len++] = '0';
+                buf[len++] = '0';
+                buf[len++] = HEX[(ch >> 4) & 0xF];
+                buf[len++] = HEX[ch & 0xF];
+        }
+    }
+
+    private void put(byte b) {
+        ensure(1);
+        buf[len++] = b;
+    }
+
+    private void put(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, len, b.length);
+        len += b.length;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra <= buf.length) return;
+        byte[] next = new byte[Math.max(buf.length * 2, len + extra)];
+        System.arraycopy(buf, 0, next, 0, len);
+        buf = next;
+    }
+}
@@ -0,0 +1,425 @@
+package org.example.service;
+
+import javax.sql.DataSource;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Runs a large single-table scan as key ranges read in parallel, each on its own worker
+// connection. The query's own connection exports its snapshot (pg_export_snapshot) and every
+// other part imports it, so together the parts see exactly what the single statement would.
+// The parts' connections are all taken from the pool before the snapshot is exported, so no
+// part waits for one while the leader holds its own.
+// Each part encodes its rows to an NDJSON segment file (deflated when the result is
+// compressed, and capped like the result); the segments are then copied in key order through
+// the query's ResultSink, which compresses and indexes them as usual.
+//
+// Only queries whose rows don't depend on each other can be split:
+// SELECT <columns> FROM <table> [alias] [WHERE <condition>], with no aggregates, window
+// functions, DISTINCT, GROUP BY, ORDER BY, LIMIT, joins or set operations, on a table whose
+// primary key is a single integer column.
+final class PartitionedScan {
+    // Calls that make a select list aggregate rows
+    private static final Set<String> AGGREGATES = new HashSet<>(Arrays.asList(
+            "count", "sum", "avg", "min", "max", "array_agg", "string_agg", "json_agg", "jsonb_agg",
+            "json_object_agg", "jsonb_object_agg", "bool_and", "bool_or", "every", "bit_and", "bit_or",
+            "stddev", "stddev_pop", "stddev_samp", "variance", "var_pop", "var_samp", "xmlagg",
+            "percentile_cont", "percentile_disc", "mode", "corr", "covar_pop", "covar_samp",
+            "regr_count", "range_agg", "range_intersect_agg"
+    ));
+    // Clauses that combine or limit rows across the whole table, and table expressions
+    // other than a plain table
+    private static final Set<String> NOT_SPLITTABLE = new HashSet<>(Arrays.asList(
+            "group", "order", "limit", "offset", "having", "window", "union", "intersect", "except",
+            "fetch", "for", "join", "inner", "left", "right", "full", "cross", "natural", "on", "using",
+            "lateral", "only", "tablesample", "where", "select", "from"
+    ));
+    private static final int COPY_BUFFER = 64 * 1024;
+
+    // What plan() needs from a splittable query
+    static final class Shape {
+        // As written, minus case folding of unquoted names
+        final String table;
+        // Offset just past WHERE, or -1 when there is none
+        final int whereEnd;
+
+        private Shape(String table, int whereEnd) {
+            this.table = table;
+            this.whereEnd = whereEnd;
+        }
+    }
+
+    private final Shape shape;
+    private final String sql;
+    private final List<Object> params;
+    private final DataSource ds;
+    private final ExecutorService threads;
+    private final int maxParts;
+    private final int fetchSize;
+    private final int statementTimeoutMs;
+    private final long maxRows;
+    // Cap on the segments' total size on disk, like the stored result's
+    private final long maxSegmentBytes;
+    private final boolean compressSegments;
+    private final File dir;
+    private final String name;
+
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong segmentBytes = new AtomicLong();
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    // Part statements, for cancel(); guarded by this
+    private final List<Statement> statements = new ArrayList<>();
+    private boolean stopped;
+    // Connections of parts 1..n-1, taken in plan()
+    private final List<Connection> conns = new ArrayList<>();
+
+    private String key;
+    private String snapshot;
+    private List<String> ranges;
+
+    PartitionedScan(Shape shape, String sql, List<Object> params, DataSource ds,
+                    ExecutorService threads, int maxParts, int fetchSize, int statementTimeoutMs,
+                    long maxRows, long maxSegmentBytes, boolean compressSegments, File dir, String name) {
+        this.shape = shape;
+        this.sql = sql;
+        this.params = params;
+        this.ds = ds;
+        this.threads = threads;
+        this.maxParts = maxParts;
+        this.fetchSize = fetchSize;
+        this.statementTimeoutMs = statementTimeoutMs;
+        this.maxRows = maxRows;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compressSegments = compressSegments;
+        this.dir = dir;
+        this.name = name;
+    }
+
+    // The query's table and WHERE position when it can be split into key ranges, else null
+    static Shape shape(String sql) {
+        List<SqlTokenizer.Token> t;
+        try {
+            t = SqlTokenizer.tokenize(sql);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (t.isEmpty() || !t.get(0).is(SqlTokenizer.Kind.WORD, "select")) return null;
+
+        // Select list: per-row expressions only
+        int i = 1;
+        if (i < t.size() && t.get(i).is(SqlTokenizer.Kind.WORD, "distinct")) return null;
+        int depth = 0;
+        for (; i < t.size(); i++) {
+            SqlTokenizer.Token tok = t.get(i);
+            if (tok.is(SqlTokenizer.Kind.SYMBOL, "(")) depth++;
+            else if (tok.is(SqlTokenizer.Kind.SYMBOL, ")")) depth--;
+            else if (depth == 0 && tok.is(SqlTokenizer.Kind.WORD, "from")) break;
+            else if (tok.is(SqlTokenizer.Kind.WORD, "over")) return null;
+            else if (tok.kind == SqlTokenizer.Kind.WORD && AGGREGATES.contains(tok.text)
+                    && i + 1 < t.size() && t.get(i + 1).is(SqlTokenizer.Kind.SYMBOL, "(")) return null;
+        }
+        if (++i >= t.size()) return null;
+
+        // [schema.]table
+        StringBuilder table = new StringBuilder();
+        while (true) {
+            if (!name(t.get(i))) return null;
+            table.append(t.get(i++).text);
+            if (i < t.size() && t.get(i).is(SqlTokenizer.Kind.SYMBOL, ".") && i + 1 < t.size()) {
+                table.append('.');
+                i++;
+            } else {
+                break;
+            }
+        }
+
+        // [[AS] alias]
+        if (i < t.size() && t.get(i).is(SqlTokenizer.Kind.WORD, "as")) i++;
+        if (i < t.size() && name(t.get(i))) i++;
+
+        if (i == t.size()) return new Shape(table.toString(), -1);
+        if (!t.get(i).is(SqlTokenizer.Kind.WORD, "where")) return null;
+        int whereEnd = t.get(i).end;
+
+        depth = 0;
+        for (i++; i < t.size(); i++) {
+            SqlTokenizer.Token tok = t.get(i);
+            if (tok.is(SqlTokenizer.Kind.SYMBOL, "(")) depth++;
+            else if (tok.is(SqlTokenizer.Kind.SYMBOL, ")")) depth--;
+            else if (depth == 0 && tok.kind == SqlTokenizer.Kind.WORD && NOT_SPLITTABLE.contains(tok.text)) return null;
+        }
+        return new Shape(table.toString(), whereEnd);
+    }
+
+    private static boolean name(SqlTokenizer.Token t) {
+        return t.kind == SqlTokenizer.Kind.QUOTED
+                || (t.kind == SqlTokenizer.Kind.WORD && !NOT_SPLITTABLE.contains(t.text));
+    }
+
+    // Runs first on the query's connection, which must be in a REPEATABLE READ transaction:
+    // finds the table's key and its bounds, takes the parts' connections and exports the snapshot
+    // they share. False when the scan is not worth splitting (no single integer key, few keys, or
+    // the pool has no connection to spare within its timeout).
+    boolean plan(Connection leader) throws SQLException {
+        try (PreparedStatement ps = leader.prepareStatement(
+                "select a.attname from pg_index i"
+                        + " join pg_attribute a on a.attrelid = i.indrelid and a.attnum = i.indkey[0]"
+                        + " where i.indrelid = to_regclass(?) and i.indisprimary and i.indnatts = 1"
+                        + " and a.atttypid in ('int2'::regtype, 'int4'::regtype, 'int8'::regtype)")) {
+            ps.setString(1, shape.table);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) return false;
+                key = "\"" + rs.getString(1).replace("\"", "\"\"") + "\"";
+            }
+        }
+
+        long min;
+        long max;
+        try (Statement st = leader.createStatement();
+             ResultSet rs = st.executeQuery("select min(" + key + "), max(" + key + ") from " + shape.table)) {
+            rs.next();
+            min = rs.getLong(1);
+            if (rs.wasNull()) return false;
+            max = rs.getLong(2);
+        }
+        long keys = max - min + 1;
+        // keys <= 0: the range overflowed a long
+        if (keys <= 0 || Math.min(maxParts, keys) < 2) return false;
+        int wanted = (int) Math.min(maxParts, keys);
+
+        // A busy pool makes for fewer parts, or a single scan, rather than parts left waiting
+        while (conns.size() < wanted - 1) {
+            try {
+                conns.add(ds.getConnection());
+            } catch (SQLException e) {
+                break;
+            }
+        }
+        int parts = 1 + conns.size();
+        if (parts < 2) return false;
+
+        try (Statement st = leader.createStatement();
+             ResultSet rs = st.executeQuery("select pg_export_snapshot()")) {
+            rs.next();
+            snapshot = rs.getString(1);
+        }
+
+        // Equal key ranges; the first and last are open so they need no bounds checks
+        long step = (keys + parts - 1) / parts;
+        ranges = new ArrayList<>(parts);
+        for (int k = 0; k < parts; k++) {
+            String range = "";
+            if (k > 0) range = key + " >= " + (min + k * step);
+            if (k < parts - 1) range += (k > 0 ? " and " : "") + key + " < " + (min + (k + 1) * step);
+            ranges.add(range);
+        }
+        return true;
+    }
+
+    // Reads all parts (the first on the leader connection, in this thread), then writes them to
+    // out in key order. Returns the row count.
+    long run(Connection leader, ResultSink out, long maxStoredBytes) throws Exception {
+        try {
+            List<Future<?>> others = new ArrayList<>();
+            for (int k = 1; k < ranges.size(); k++) {
+                final int part = k;
+                others.add(threads.submit(() -> {
+                    try {
+                        importAndScan(part);
+                    } catch (Exception e) {
+                        fail(e);
+                    }
+                }));
+            }
+            try {
+                scan(leader, 0);
+            } catch (Exception e) {
+                fail(e);
+            }
+            for (Future<?> f : others) {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    cancel();
+                    Thread.currentThread().interrupt();
+                    throw e;
+                } catch (ExecutionException e) {
+                    fail(new RuntimeException(e.getCause()));
+                }
+            }
+            Exception e = failure.get();
+            if (e != null) throw e;
+
+            for (int k = 0; k < ranges.size(); k++) copy(segment(k), out, maxStoredBytes);
+            return rows.get();
+        } finally {
+            for (int k = 0; k < ranges.size(); k++) segment(k).delete();
+            release();
+        }
+    }
+
+    // Returns the parts' connections to the pool; the worker calls it however the query ends
+    void release() {
+        for (Connection c : conns) {
+            try {
+                c.close();
+            } catch (SQLException ignored) {
+            }
+        }
+        conns.clear();
+    }
+
+    // Stops every part; their statements fail with query_canceled
+    void cancel() {
+        List<Statement> running;
+        synchronized (this) {
+            stopped = true;
+            running = new ArrayList<>(statements);
+        }
+        for (Statement st : running) {
+            try {
+                st.cancel();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+
+    // The first failure fails the query; the other parts are stopped
+    private void fail(Exception e) {
+        if (failure.compareAndSet(null, e)) cancel();
+    }
+
+    private synchronized void register(Statement st) throws SQLException {
+        if (stopped) throw new SQLException("canceling statement due to user request", "57014");
+        statements.add(st);
+    }
+
+    private void importAndScan(int part) throws Exception {
+        Connection c = conns.get(part - 1);
+        c.setAutoCommit(false);
+        c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try (Statement st = c.createStatement()) {
+            st.execute("set transaction snapshot '" + snapshot + "'");
+            st.execute("set local statement_timeout = " + statementTimeoutMs);
+        }
+        scan(c, part);
+        c.commit();
+    }
+
+    private void scan(Connection c, int part) throws Exception {
+        String range = ranges.get(part);
+        String partSql;
+        // Newlines end any trailing -- comment in the query
+        if (shape.whereEnd < 0) {
+            partSql = sql + "\nwhere " + range;
+        } else {
+            partSql = sql.substring(0, shape.whereEnd) + " (" + range + ") and (" + sql.substring(shape.whereEnd) + "\n)";
+        }
+
+        try (PreparedStatement ps = c.prepareStatement(partSql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            ps.setFetchSize(fetchSize);
+            SqlParams.bind(ps, params);
+            register(ps);
+            try (ResultSet rs = ps.executeQuery();
+                 OutputStream seg = new BufferedOutputStream(openSegment(part), COPY_BUFFER)) {
+                NdjsonEncoder encoder = new NdjsonEncoder(rs.getMetaData());
+                while (rs.next()) {
+                    if (rows.incrementAndGet() > maxRows) throw new RuntimeException("row limit exceeded");
+                    encoder.writeRow(rs, seg);
+                }
+            }
+        }
+    }
+
+    // Segment bytes as they reach the file, i.e. after deflating, count against maxSegmentBytes
+    private OutputStream openSegment(int part) throws IOException {
+        OutputStream file = new FilterOutputStream(new FileOutputStream(segment(part))) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (segmentBytes.addAndGet(len) > maxSegmentBytes) throw new IOException("byte limit exceeded");
+                out.write(b, off, len);
+            }
+        };
+        if (!compressSegments) return file;
+        // Fastest level: the segment is only read back once, by copy()
+        return new DeflaterOutputStream(file, new Deflater(Deflater.BEST_SPEED), COPY_BUFFER) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    private InputStream openForCopy(File segment) throws IOException {
+        InputStream file = new FileInputStream(segment);
+        if (!compressSegments) return new BufferedInputStream(file, COPY_BUFFER);
+        return new InflaterInputStream(file, new Inflater(), COPY_BUFFER) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    // Appends a segment to out row by row, so the sink starts index blocks where it should
+    private void copy(File segment, ResultSink out, long maxStoredBytes) throws Exception {
+        byte[] buf = new byte[COPY_BUFFER];
+        boolean rowStart = true;
+        try (InputStream in = openForCopy(segment)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                int from = 0;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != '\n') continue;
+                    if (rowStart) out.beginRow();
+                    out.write(buf, from, i + 1 - from);
+                    from = i + 1;
+                    rowStart = true;
+                    if (out.storedBytes() > maxStoredBytes) throw new RuntimeException("byte limit exceeded");
+                }
+                if (from < n) {
+                    if (rowStart) out.beginRow();
+                    out.write(buf, from, n - from);
+                    rowStart = false;
+                }
+            }
+        }
+    }
+
+    private File segment(int part) {
+        return new File(dir, name + ".part" + part);
+    }
+}
@@ -1,74 +1,161 @@
 package org.example.service;
 
+import org.example.dto.BatchQueryResponse;
 import org.example.dto.QueryResponse;
 import org.example.dto.QueryStatus;
+import org.example.dto.ResultFormat;
+import org.example.dto.SubmitQueryRequest;
 import org.example.repo.QueryRepo;
 
+import io.dropwizard.lifecycle.Managed;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class QueryService {
+public class QueryService implements Managed {
     private final QueryRepo store;
 
     private final SqlGuard sqlGuard;
     private final RateLimiter rateLimiter;
+    private final RateLimiter readLimiter;
 
-    private final int maxPendingPerUser;
-    private final int maxRunningPerUser;
-    private final int maxRunningGlobal;
+    private final AdmissionLedger ledger;
+    private final ResultCache cache;
+    private final CostEstimator estimator;
+    private final RuntimeStats stats;
+    private final StatusBus bus;
+    // Null when results are never deleted
+    private final ResultJanitor janitor;
+    private final long maxWaitMs;
+    private final int maxBatchSize;
 
-    private final BlockingQueue<QueryWorker.Job> queue;
+    private final FairScheduler scheduler;
+    // Distributed dispatch: submit only inserts the row and ClusterDispatcher claims it
+    private final boolean distributed;
     private final ExecutorService pool;
+    private final ExecutorService jobThreads;
     private final QueryWorker queryWorker;
 
     public QueryService(
             QueryRepo store,
+            DataSource executionDs,
             SqlGuard sqlGuard,
             RateLimiter rateLimiter,
+            RateLimiter readLimiter,
             int workerCount,
-            int queueSize,
-            int maxPendingPerUser,
-            int maxRunningPerUser,
-            int maxRunningGlobal,
+            boolean virtualThreads,
+            boolean distributed,
+            FairScheduler scheduler,
+            AdmissionLedger ledger,
             File resultsDir,
             int statementTimeoutMs,
             int fetchSize,
             long maxRows,
-            long maxBytes
+            long maxBytes,
+            int indexStride,
+            int gzipLevel,
+            int scanPartitions,
+            long scanMinRows,
+            int scanMaxConcurrent,
+            ResultCache cache,
+            CostEstimator estimator,
+            RuntimeStats stats,
+            StatusBus bus,
+            ResultJanitor janitor,
+            long maxWaitMs,
+            int maxBatchSize
     ) {
         this.store = store;
         // Guard SQL safety
         this.sqlGuard = sqlGuard;
         // For per-user rate limits,and backpressure
         this.rateLimiter = rateLimiter;
-        this.maxPendingPerUser = maxPendingPerUser;
-        this.maxRunningPerUser = maxRunningPerUser;
-        this.maxRunningGlobal = maxRunningGlobal;
-        // Bounded queue and fixed worker pool
-        this.queue = new ArrayBlockingQueue<>(queueSize);
+        // Status polls and downloads are limited separately from submits
+        this.readLimiter = readLimiter;
+        this.ledger = ledger;
+        this.cache = cache;
+        this.estimator = estimator;
+        this.stats = stats;
+        this.bus = bus;
+        this.janitor = janitor;
+        this.maxWaitMs = maxWaitMs;
+        this.maxBatchSize = maxBatchSize;
+        // Bounded per-user fair queue and fixed worker pool
+        this.scheduler = scheduler;
+        this.distributed = distributed;
         // Start background worker
-        this.queryWorker = new QueryWorker(queue, store, resultsDir, statementTimeoutMs, fetchSize, maxRows, maxBytes);
+        this.queryWorker = new QueryWorker(scheduler, store, executionDs, resultsDir, statementTimeoutMs, fetchSize, maxRows, maxBytes, indexStride, gzipLevel, cache, stats,
+                scanPartitions, scanMinRows, scanMaxConcurrent);
+        // Cancels arrive as transitions, whichever node's API received them
+        store.addListener((id, userId, status) -> {
+            if (status == QueryStatus.CANCELLED) queryWorker.cancel(id);
+        });
 
-        this.pool = Executors.newFixedThreadPool(workerCount);
-        for (int i = 0; i < workerCount; i++) {
-            pool.submit(queryWorker);
+        if (virtualThreads) {
+            // One dispatcher hands every job its own (virtual) thread; concurrency is bounded by
+            // the scheduler's maxRunningGlobal permits rather than by a thread count
+            this.jobThreads = VirtualThreads.perTaskExecutor();
+            this.pool = Executors.newSingleThreadExecutor();
+            pool.submit(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        QueryWorker.Job job = scheduler.take();
+                        jobThreads.execute(() -> queryWorker.execute(job));
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            });
+        } else {
+            this.jobThreads = null;
+            this.pool = Executors.newFixedThreadPool(workerCount);
+            for (int i = 0; i < workerCount; i++) {
+                pool.submit(queryWorker);
+            }
         }
     }
+
+    @Override
+    public void start() {
+    }
+
+    // Interrupts the workers waiting on the scheduler (and, in virtual mode, the dispatcher and
+    // job threads), then waits briefly for running jobs to record their outcome
+    @Override
+    public void stop() throws InterruptedException {
+        pool.shutdownNow();
+        if (jobThreads != null) jobThreads.shutdownNow();
+        queryWorker.stop();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+        if (jobThreads != null) jobThreads.awaitTermination(5, TimeUnit.SECONDS);
+    }
     // Validates SQL and also enforces rate/limit checks and enqueues it for async execution
-    public QueryResponse submit(String userId, String sql, String idempotencyKey) throws Exception {
-        sqlGuard.validate(sql);
-        if (!rateLimiter.allow(userId)) {
-            throw new WebApplicationException("rate limited", 429);
-        }
+    public QueryResponse submit(String userId, String sql, List<Object> params, ResultFormat format,
+                                String idempotencyKey) throws Exception {
+        SqlFingerprint fingerprint = sqlGuard.validate(sql);
+        SqlParams.check(params, fingerprint.placeholders);
+        checkRate(rateLimiter, userId, 1);
 
 
 
@@ -81,87 +168,417 @@ public class QueryService {
             if (existing != null) return toResponse(existing);
         }
 
-        if (store.countUser(userId, QueryStatus.PENDING) >= maxPendingPerUser) {
-            throw new WebApplicationException("too many pending queries", 429);
-        }
-        if (store.countUser(userId, QueryStatus.RUNNING) >= maxRunningPerUser) {
-            throw new WebApplicationException("too many running queries", 429);
-        }
-        if (store.countGlobal(QueryStatus.RUNNING) >= maxRunningGlobal) {
-            throw new WebApplicationException("server busy", 429);
-        }
-
         QueryRepo.Row row = new QueryRepo.Row();
         row.id = "q_" + UUID.randomUUID().toString().replace("-", "");
         row.userId = userId;
         row.idempotencyKey = idem;
         row.sql = sql;
+        row.params = SqlParams.toJson(params);
+        row.format = format;
         row.status = QueryStatus.PENDING;
         row.createdAt = Instant.now();
 
-        store.insert(row);
+        // Also the coalescing key, so identical queries share one run with the cache off too
+        String cacheKey = ResultCache.key(fingerprint, row.params, format);
+        if (cacheKey != null && cache.enabled()) {
+            ResultCache.Hit hit = cache.lookup(cacheKey, row.id);
+            if (hit != null) return completeFromCache(row, hit);
+        }
+
+        // Planner estimate: may reject the query or route it to the low-priority lane
+        CostEstimator.Estimate estimate = estimator.admit(sql, params);
+        if (estimate != null) {
+            row.estRows = estimate.rows;
+            row.estCost = estimate.cost;
+        }
+
+        // Reserve the slot in memory first; the insert's transition is then a no-op for the ledger
+        ledger.admit(userId, row.id);
+        try {
+            store.insert(row);
+        } catch (Exception e) {
+            ledger.release(userId, row.id);
+            throw e;
+        }
+
+        if (!distributed) dispatch(row, jobFor(row, cacheKey, fingerprint.hash));
+        return toResponse(row);
+    }
+    // Queues a PENDING row that was inserted earlier: claimed from the cluster, or left
+    // over from before a restart
+    public void enqueue(QueryRepo.Row row) throws Exception {
+        SqlFingerprint fingerprint = SqlFingerprint.of(row.sql);
+        String cacheKey = ResultCache.key(fingerprint, row.params, row.format);
+        dispatch(row, jobFor(row, cacheKey, fingerprint.hash));
+    }
+    // Re-queues the PENDING rows a previous run of this process accepted but never ran
+    public void resumePending() throws Exception {
+        for (QueryRepo.Row row : store.pending()) {
+            try {
+                enqueue(row);
+            } catch (WebApplicationException e) {
+                // dispatch already failed the row
+            }
+        }
+    }
+
+    private QueryWorker.Job jobFor(QueryRepo.Row row, String cacheKey, String fingerprint) {
+        return new QueryWorker.Job(row.id, row.userId, row.sql, SqlParams.fromJson(row.params), row.format, row.createdAt,
+                cacheKey, fingerprint,
+                stats.expectedMs(fingerprint), estimator.lowPriority(row.estCost), row.estRows);
+    }
+    // Coalesces the job with an identical one or hands it to the scheduler
+    private void dispatch(QueryRepo.Row row, QueryWorker.Job job) throws Exception {
+        switch (queryWorker.join(job)) {
+            case RUNNING:
+                // Attached to an identical query that is already executing
+                if (store.pendingToRunning(row.userId, row.id, Instant.now())) {
+                    row.status = QueryStatus.RUNNING;
+                }
+                return;
+            case QUEUED:
+                return;
+            default:
+                break;
+        }
 
-        boolean enqueued = queue.offer(new QueryWorker.Job(row.id, userId));
+        boolean enqueued = scheduler.offer(job);
         if (!enqueued) {
-            store.fail(userId, row.id, Instant.now(), "queue full");
+            queryWorker.abandon(job, "queue full");
             throw new WebApplicationException("server busy", 429);
         }
-
+    }
+    // A cache hit is recorded as an already finished query sharing the cached file,
+    // without going through admission, the queue or the database
+    private QueryResponse completeFromCache(QueryRepo.Row row, ResultCache.Hit hit) throws Exception {
+        fillFromCache(row, hit);
+        try {
+            store.insert(row);
+        } catch (Exception e) {
+            dropCacheLink(row);
+            throw e;
+        }
         return toResponse(row);
     }
+
+    private static void fillFromCache(QueryRepo.Row row, ResultCache.Hit hit) {
+        row.status = QueryStatus.SUCCEEDED;
+        row.startedAt = row.createdAt;
+        row.endedAt = row.createdAt;
+        row.resultPath = hit.data.getAbsolutePath();
+        row.rowsWritten = hit.rows;
+        row.bytesWritten = hit.rawBytes;
+        // A link to the cached file: its bytes are counted against the query that produced it
+        row.storedBytes = 0L;
+    }
+
+    private static void dropCacheLink(QueryRepo.Row row) {
+        new File(row.resultPath).delete();
+        RowIndex.fileFor(row.resultPath).delete();
+    }
+    // Submits several queries as one unit: every statement is validated, rate limited, estimated
+    // and admitted before any row is written, and all rows go in with one multi-row insert.
+    // With an Idempotency-Key, item i uses "<key>#<i>" and a retried batch returns the first one.
+    public BatchQueryResponse submitBatch(String userId, List<SubmitQueryRequest> reqs, String idempotencyKey) throws Exception {
+        if (reqs == null || reqs.isEmpty()) throw new IllegalArgumentException("queries required");
+        if (reqs.size() > maxBatchSize) throw new IllegalArgumentException("at most " + maxBatchSize + " queries per batch");
+
+        List<String> sqls = new ArrayList<>(reqs.size());
+        List<SqlFingerprint> fingerprints = new ArrayList<>(reqs.size());
+        List<List<Object>> params = new ArrayList<>(reqs.size());
+        List<ResultFormat> formats = new ArrayList<>(reqs.size());
+        for (int i = 0; i < reqs.size(); i++) {
+            SubmitQueryRequest req = reqs.get(i);
+            try {
+                String sql = (req == null) ? null : req.getSql();
+                SqlFingerprint fingerprint = sqlGuard.validate(sql);
+                SqlParams.check(req.getParams(), fingerprint.placeholders);
+                fingerprints.add(fingerprint);
+                params.add(req.getParams());
+                sqls.add(sql);
+                formats.add(ResultFormat.parse(req.getFormat()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("queries[" + i + "]: " + e.getMessage());
+            }
+        }
+        checkRate(rateLimiter, userId, reqs.size());
+
+        String idem = (idempotencyKey == null || idempotencyKey.trim().isEmpty())
+                ? null
+                : idempotencyKey.trim();
+        if (idem != null) {
+            List<String> keys = new ArrayList<>(reqs.size());
+            for (int i = 0; i < reqs.size(); i++) keys.add(idem + "#" + i);
+            Map<String, QueryRepo.Row> existing = new HashMap<>();
+            for (QueryRepo.Row r : store.byIdems(userId, keys)) existing.put(r.idempotencyKey, r);
+            if (!existing.isEmpty()) {
+                List<QueryResponse> out = new ArrayList<>();
+                for (String k : keys) {
+                    QueryRepo.Row r = existing.get(k);
+                    if (r != null) out.add(toResponse(r));
+                }
+                return new BatchQueryResponse(out);
+            }
+        }
+
+        Instant now = Instant.now();
+        List<QueryRepo.Row> rows = new ArrayList<>(reqs.size());
+        List<String> cacheKeys = new ArrayList<>(reqs.size());
+        // Rows that still have to run, with their statements
+        List<QueryRepo.Row> toRun = new ArrayList<>();
+        List<String> toRunSql = new ArrayList<>();
+        List<List<Object>> toRunParams = new ArrayList<>();
+        List<String> toRunIds = new ArrayList<>();
+        for (int i = 0; i < reqs.size(); i++) {
+            QueryRepo.Row row = new QueryRepo.Row();
+            row.id = "q_" + UUID.randomUUID().toString().replace("-", "");
+            row.userId = userId;
+            row.idempotencyKey = (idem == null) ? null : idem + "#" + i;
+            row.sql = sqls.get(i);
+            row.params = SqlParams.toJson(params.get(i));
+            row.format = formats.get(i);
+            row.status = QueryStatus.PENDING;
+            row.createdAt = now;
+            rows.add(row);
+
+            String cacheKey = ResultCache.key(fingerprints.get(i), row.params, row.format);
+            cacheKeys.add(cacheKey);
+            ResultCache.Hit hit = (cacheKey == null || !cache.enabled()) ? null : cache.lookup(cacheKey, row.id);
+            if (hit != null) {
+                fillFromCache(row, hit);
+            } else {
+                toRun.add(row);
+                toRunSql.add(row.sql);
+                toRunParams.add(params.get(i));
+                toRunIds.add(row.id);
+            }
+        }
+
+        try {
+            List<CostEstimator.Estimate> estimates = estimator.admitAll(toRunSql, toRunParams);
+            for (int i = 0; i < toRun.size(); i++) {
+                CostEstimator.Estimate e = estimates.get(i);
+                if (e == null) continue;
+                toRun.get(i).estRows = e.rows;
+                toRun.get(i).estCost = e.cost;
+            }
+            ledger.admitAll(userId, toRunIds);
+        } catch (Exception e) {
+            for (QueryRepo.Row row : rows) {
+                if (row.status == QueryStatus.SUCCEEDED) dropCacheLink(row);
+            }
+            throw e;
+        }
+
+        try {
+            store.insertAll(rows);
+        } catch (Exception e) {
+            for (QueryRepo.Row row : rows) {
+                if (row.status == QueryStatus.SUCCEEDED) dropCacheLink(row);
+                else ledger.release(userId, row.id);
+            }
+            throw e;
+        }
+
+        List<QueryResponse> out = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            QueryRepo.Row row = rows.get(i);
+            if (row.status == QueryStatus.PENDING && !distributed) {
+                try {
+                    dispatch(row, jobFor(row, cacheKeys.get(i), fingerprints.get(i).hash));
+                } catch (WebApplicationException e) {
+                    // The rows are already stored: report the one that didn't fit the queue as failed
+                    row.status = QueryStatus.FAILED;
+                    row.error = "queue full";
+                }
+            }
+            out.add(toResponse(row));
+        }
+        return new BatchQueryResponse(out);
+    }
     //  Returns the current status
     public QueryResponse status(String userId, String id) throws Exception {
         QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
         return toResponse(row);
     }
-    // Streams the completed query results
-    public Response results(String userId, String id) throws Exception {
+    // Status of several queries with one lookup; ids that don't exist (or aren't the user's) are left out
+    public BatchQueryResponse statuses(String userId, List<String> ids) throws Exception {
+        checkRate(readLimiter, userId, 1);
+        if (ids.isEmpty()) throw new IllegalArgumentException("ids required");
+        if (ids.size() > maxBatchSize) throw new IllegalArgumentException("at most " + maxBatchSize + " ids");
+
+        Map<String, QueryRepo.Row> found = new HashMap<>();
+        for (QueryRepo.Row r : store.byIds(userId, ids)) found.put(r.id, r);
+        List<QueryResponse> out = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            QueryRepo.Row r = found.get(id);
+            if (r != null) out.add(toResponse(r));
+        }
+        return new BatchQueryResponse(out);
+    }
+    // Long-poll: answers as soon as the query moves on from the status it has now, or with the
+    // unchanged status once waitMs (capped at maxWaitMs) has passed
+    public void awaitStatus(String userId, String id, long waitMs, AsyncResponse async) throws Exception {
+        checkRate(readLimiter, userId, 1);
         QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
+        if (waitMs <= 0 || row.status.terminal()) {
+            async.resume(toResponse(row));
+            return;
+        }
+
+        QueryStatus seen = row.status;
+        Runnable unsubscribe = bus.subscribe(id, status -> {
+            if (status != seen) resumeWithStatus(userId, id, async);
+        });
+        async.register((CompletionCallback) t -> unsubscribe.run());
+        async.setTimeoutHandler(ar -> resumeWithStatus(userId, id, ar));
+        async.setTimeout(Math.min(waitMs, maxWaitMs), TimeUnit.MILLISECONDS);
 
+        // A transition between the read above and subscribing would otherwise be missed
+        QueryRepo.Row now = store.byId(userId, id).orElse(row);
+        if (now.status != seen) async.resume(toResponse(now));
+    }
+
+    private void resumeWithStatus(String userId, String id, AsyncResponse async) {
+        if (async.isDone()) return;
+        try {
+            async.resume(status(userId, id));
+        } catch (Exception e) {
+            async.resume(e);
+        }
+    }
+    // Server-sent events: the current status, then every change up to the terminal status
+    public ChunkedOutput<String> events(String userId, String id) throws Exception {
+        checkRate(readLimiter, userId, 1);
+        QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
+        StatusStream stream = new StatusStream();
+        if (!stream.send(toResponse(row))) return stream.output();
+
+        AtomicReference<Runnable> unsubscribe = new AtomicReference<>();
+        unsubscribe.set(bus.subscribe(id, status -> {
+            Runnable u = unsubscribe.get();
+            // u is only null until subscribe returns; the check below covers that window
+            if (!stream.send(status(userId, id)) && u != null) u.run();
+        }));
+        // Same race as in awaitStatus
+        if (!stream.send(status(userId, id))) unsubscribe.get().run();
+        return stream.output();
+    }
+    // Parses a wait such as "30s", "500ms" or "30" (seconds); null means don't wait
+    public static long waitMillis(String wait) {
+        if (wait == null || wait.trim().isEmpty()) return 0;
+        String w = wait.trim().toLowerCase(Locale.ROOT);
+        try {
+            if (w.endsWith("ms")) return Long.parseLong(w.substring(0, w.length() - 2));
+            if (w.endsWith("s")) return Long.parseLong(w.substring(0, w.length() - 1)) * 1000;
+            return Long.parseLong(w) * 1000;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid wait: " + wait);
+        }
+    }
+    // Streams the completed query results; see ResultFiles for ranges, row pages and
+    // content negotiation against gzip-stored results
+    public Response results(String userId, String id, String ifNoneMatch, String range, String acceptEncoding,
+                            Long offset, Long limit, HttpServletResponse response) throws Exception {
+        checkRate(readLimiter, userId, 1);
+        QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
+
+        if (row.status == QueryStatus.EXPIRED) {
+            throw new WebApplicationException("result expired", 410);
+        }
         if (row.status != QueryStatus.SUCCEEDED) {
             throw new WebApplicationException("not ready", 409);
         }
         if (row.resultPath == null) {
             throw new WebApplicationException("result missing", 500);
         }
-
-        File file = new File(row.resultPath);
-        if (!file.exists()) {
-            throw new WebApplicationException("result file missing", 500);
+        if (janitor != null) janitor.read(id);
+        return ResultFiles.serve(row, ifNoneMatch, range, acceptEncoding, offset, limit, response);
+    }
+    // Streams an NDJSON result while the query is still running: rows arrive as the worker
+    // flushes them, and a final {"_status":..,"_rows":..} line reports the outcome. A slow
+    // client only slows its own reads of the file, never the worker.
+    public Response follow(String userId, String id) throws Exception {
+        checkRate(readLimiter, userId, 1);
+        QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
+        if (row.format != ResultFormat.NDJSON) {
+            throw new IllegalArgumentException("follow is only supported for ndjson results");
         }
-
-        StreamingOutput stream = out -> {
-            try (FileInputStream in = new FileInputStream(file)) {
-                byte[] buf = new byte[8192];
-                int n;
-                while ((n = in.read(buf)) != -1) {
-                    out.write(buf, 0, n);
-                }
+        StreamingOutput body = out -> {
+            try {
+                tail(userId, id, out);
+            } catch (IOException e) {
+                throw e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", e);
+            } catch (Exception e) {
+                throw new IOException(e);
             }
         };
+        return Response.ok(body, ResultFormat.NDJSON.mediaType).build();
+    }
 
-        return Response.ok(stream)
-                .type("application/x-ndjson")
-                .build();
+    private void tail(String userId, String id, OutputStream out) throws Exception {
+        long pos = 0;
+        long rows = 0;
+        LiveResult live = null;
+        try {
+            while (true) {
+                // Looked up every round: the worker may replace the entry when the query starts
+                live = queryWorker.follow(id);
+                LiveResult.Mark mark = live.mark();
+                if (mark.file != null && mark.bytes > pos) {
+                    ResultTail.copy(mark.file, pos, mark.bytes, out);
+                    out.flush();
+                    pos = mark.bytes;
+                    rows = mark.rows;
+                    continue;
+                }
+
+                QueryRepo.Row row = store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
+                if (row.status.terminal()) {
+                    if (row.status == QueryStatus.SUCCEEDED && row.resultPath != null) {
+                        File file = new File(row.resultPath);
+                        ResultTail.copy(file, pos, file.length(), out);
+                        rows = (row.rowsWritten == null) ? rows : row.rowsWritten;
+                    }
+                    ResultTail.trailer(row.status, rows, row.error, out);
+                    return;
+                }
+                // Runs elsewhere (another node) or hasn't produced anything yet: check again shortly
+                live.await(pos, 1_000);
+            }
+        } finally {
+            if (live != null) queryWorker.unfollow(id, live);
+        }
     }
     // Cancels a pending or running query
     public QueryResponse cancel(String userId, String id) throws Exception {
         store.byId(userId, id).orElseThrow(() -> new WebApplicationException("not found", 404));
         store.cancel(userId, id, Instant.now());
-        queryWorker.cancel(id);
         return status(userId, id);
     }
+    private static void checkRate(RateLimiter limiter, String userId, int n) {
+        if (!limiter.allow(userId, n)) {
+            throw new WebApplicationException("rate limited", 429);
+        }
+    }
     // Maps  query state to response
     private static QueryResponse toResponse(QueryRepo.Row row) {
         QueryResponse resp = new QueryResponse();
         resp.id = row.id;
         resp.status = row.status;
+        resp.format = row.format;
         resp.createdAt = row.createdAt;
         resp.startedAt = row.startedAt;
         resp.endedAt = row.endedAt;
         resp.error = row.error;
         resp.rowsWritten = row.rowsWritten;
         resp.bytesWritten = row.bytesWritten;
+        resp.storedBytes = row.storedBytes;
+        resp.estRows = row.estRows;
+        resp.estCost = row.estCost;
         return resp;
     }
 }
@@ -1,41 +1,64 @@
 package org.example.service;
 
-import java.time.Instant;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-// Rate limiter
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Per-user token bucket that refills continuously at perMinute, holding at most burst tokens.
+// Kept as GCRA: each user has one "theoretical arrival time" (tat), when the bucket would be
+// full again, and a request for n tokens pushes it n intervals further out unless that puts
+// it more than burst intervals ahead of now. One CAS on an AtomicLong, no locks, no clock
+// object. perMinute <= 0 disables the limit.
 public class RateLimiter {
-    private static class Bucket {
-        int tokens;
-        long lastSec;
-        Bucket(int tokens, long lastSec) {
-            this.tokens = tokens;
-            this.lastSec = lastSec;
-        }
-    }
+    // Full buckets are dropped after a sweep, at most once per SWEEP_NANOS
+    private static final long SWEEP_NANOS = TimeUnit.MINUTES.toNanos(1);
 
-    private final int perMinute;
-    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int burst;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
 
-    public RateLimiter(int perMinute) {
-        this.perMinute = perMinute;
+    public RateLimiter(int perMinute, int burst) {
+        this.intervalNanos = (perMinute > 0) ? TimeUnit.MINUTES.toNanos(1) / perMinute : 0;
+        this.burst = Math.max(1, burst);
+        this.toleranceNanos = intervalNanos * this.burst;
     }
 
     public boolean allow(String userId) {
-        long now = Instant.now().getEpochSecond();
-        // Create bucket per user
-        Bucket bucket = buckets.computeIfAbsent(userId, k -> new Bucket(perMinute, now));
-        // Synchronize for global rate limit
-        synchronized (bucket) {
-            // token count is reset after 60 sec
-            if (now - bucket.lastSec >= 60) {
-                bucket.tokens = perMinute;
-                bucket.lastSec = now;
-            }
-            // No tokens available, then reject
-            if (bucket.tokens <= 0) return false;
-            // consumes 1 token
-            bucket.tokens--;
-            return true;
+        return allow(userId, 1);
+    }
+
+    // Takes n tokens at once (a batch counts as n requests), or none. A batch larger than the
+    // bucket costs the whole bucket, so it needs a full bucket instead of never fitting.
+    public boolean allow(String userId, int n) {
+        if (intervalNanos == 0) return true;
+        long now = System.nanoTime();
+        maybeSweep(now);
+
+        // A new bucket starts full: its tat is now
+        AtomicLong tat = buckets.computeIfAbsent(userId, k -> new AtomicLong(now));
+        long cost = intervalNanos * Math.min(n, burst);
+        while (true) {
+            long current = tat.get();
+            long next = Math.max(current, now) + cost;
+            if (next - now > toleranceNanos) return false;
+            if (tat.compareAndSet(current, next)) return true;
+        }
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    // A bucket whose tat has passed is full, the same as no bucket. A request racing the
+    // removal may land on the dropped instance; that user then gets one refill early.
+    private void maybeSweep(long now) {
+        long last = lastSweep.get();
+        if (now - last < SWEEP_NANOS || !lastSweep.compareAndSet(last, now)) return;
+        for (Map.Entry<String, AtomicLong> e : buckets.entrySet()) {
+            if (e.getValue().get() - now <= 0) buckets.remove(e.getKey(), e.getValue());
         }
     }
 }
@@ -0,0 +1,188 @@
+package org.example.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import org.example.dto.ResultFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Caches finished results by SQL fingerprint + format. The cache keeps its own hard link to
+// every cached file under <resultsDir>/cache, and each hit gets a fresh link named after the
+// new query id, so evicting an entry never pulls a file out from under a query that uses it;
+// the data is freed once the last link is gone. Bounded by TTL and total stored bytes (LRU).
+public class ResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultCache.class);
+
+    public static class Hit {
+        public final File data;
+        public final long rows;
+        public final long rawBytes;
+
+        Hit(File data, long rows, long rawBytes) {
+            this.data = data;
+            this.rows = rows;
+            this.rawBytes = rawBytes;
+        }
+    }
+
+    private static class Entry {
+        final File data;
+        final File index;
+        final long rows;
+        final long rawBytes;
+        final long storedBytes;
+        final long expiresAtMs;
+
+        Entry(File data, File index, long rows, long rawBytes, long storedBytes, long expiresAtMs) {
+            this.data = data;
+            this.index = index;
+            this.rows = rows;
+            this.rawBytes = rawBytes;
+            this.storedBytes = storedBytes;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private final File resultsDir;
+    private final File cacheDir;
+    private final long ttlMs;
+    private final long maxBytes;
+
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by this
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final Meter hits;
+    private final Meter misses;
+
+    public ResultCache(File resultsDir, String cacheDirName, long ttlMs, long maxBytes, MetricRegistry metrics) {
+        this.resultsDir = resultsDir;
+        this.cacheDir = new File(resultsDir, cacheDirName);
+        this.ttlMs = ttlMs;
+        this.maxBytes = maxBytes;
+
+        // Entries don't survive a restart, so neither do their links
+        File[] stale = cacheDir.listFiles();
+        if (stale != null) {
+            for (File f : stale) {
+                if (!f.delete()) LOG.warn("Failed to delete stale cache file {}", f);
+            }
+        }
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            LOG.warn("Failed to create result cache dir");
+        }
+
+        this.hits = metrics.meter(MetricRegistry.name(ResultCache.class, "hits"));
+        this.misses = metrics.meter(MetricRegistry.name(ResultCache.class, "misses"));
+        metrics.register(MetricRegistry.name(ResultCache.class, "entries"), (Gauge<Integer>) this::size);
+        metrics.register(MetricRegistry.name(ResultCache.class, "bytes"), (Gauge<Long>) this::bytes);
+    }
+
+    public boolean enabled() {
+        return ttlMs > 0 && maxBytes > 0;
+    }
+
+    // Cache key for the SQL, its parameter values (JSON, null for plain SQL) and output format,
+    // or null when the SQL is not deterministic
+    static String key(SqlFingerprint fp, String params, ResultFormat format) {
+        if (!fp.deterministic) return null;
+        String values = (params == null) ? "" : "-" + SqlFingerprint.sha256(params);
+        return fp.hash + values + "-" + format.name().toLowerCase(Locale.ROOT);
+    }
+
+    // Links a cached result to the new query id; null on a miss
+    public synchronized Hit lookup(String key, String queryId) {
+        Entry e = entries.get(key);
+        if (e != null && e.expiresAtMs <= System.currentTimeMillis()) {
+            remove(key);
+            e = null;
+        }
+        if (e == null) {
+            misses.mark();
+            return null;
+        }
+
+        String ext = e.data.getName().substring(e.data.getName().indexOf('.'));
+        File data = new File(resultsDir, queryId + ext);
+        try {
+            ResultFiles.link(e.data, data);
+            if (e.index != null) ResultFiles.link(e.index, RowIndex.fileFor(data.getAbsolutePath()));
+        } catch (IOException ex) {
+            LOG.warn("Result cache link failed key={}", key, ex);
+            data.delete();
+            remove(key);
+            misses.mark();
+            return null;
+        }
+        hits.mark();
+        return new Hit(data, e.rows, e.rawBytes);
+    }
+
+    // Adds a freshly written result; called by the worker once the query has succeeded
+    public void put(String key, File data, File index, long rows, long rawBytes, long storedBytes) {
+        if (!enabled() || storedBytes > maxBytes) return;
+
+        String ext = data.getName().substring(data.getName().indexOf('.'));
+        File cached = new File(cacheDir, key + ext);
+        File cachedIndex = (index != null && index.exists()) ? RowIndex.fileFor(cached.getAbsolutePath()) : null;
+
+        synchronized (this) {
+            if (entries.containsKey(key)) return;
+            try {
+                ResultFiles.link(data, cached);
+                if (cachedIndex != null) ResultFiles.link(index, cachedIndex);
+            } catch (IOException ex) {
+                LOG.warn("Result cache insert failed key={}", key, ex);
+                cached.delete();
+                if (cachedIndex != null) cachedIndex.delete();
+                return;
+            }
+            long now = System.currentTimeMillis();
+            entries.put(key, new Entry(cached, cachedIndex, rows, rawBytes, storedBytes, now + ttlMs));
+            totalBytes += storedBytes;
+
+            // Expired entries go first, wherever they are in LRU order, so files of entries no
+            // lookup asks for again don't sit on disk until the byte bound pushes them out
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next().getValue();
+                if (e.expiresAtMs > now) continue;
+                it.remove();
+                drop(e);
+            }
+            it = entries.entrySet().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next().getValue();
+                it.remove();
+                drop(eldest);
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    private void remove(String key) {
+        Entry e = entries.remove(key);
+        if (e != null) drop(e);
+    }
+
+    private void drop(Entry e) {
+        totalBytes -= e.storedBytes;
+        e.data.delete();
+        if (e.index != null) e.index.delete();
+    }
+}
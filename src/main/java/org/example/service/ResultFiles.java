@@ -0,0 +1,251 @@
+package org.example.service;
+
+import org.example.dto.ResultFormat;
+import org.example.repo.QueryRepo;
+import org.eclipse.jetty.server.HttpOutput;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+// Builds download responses for stored result files: full bodies, byte ranges and row pages
+// (NDJSON only), for plain and gzip-stored results. Under Jetty, stored bytes are handed to the
+// connector as a mapped file region, so they reach the socket without passing through a heap
+// buffer; gzip files are sent as-is to clients that accept gzip and inflated on the fly only
+// for those that don't.
+final class ResultFiles {
+    static final String NDJSON = ResultFormat.NDJSON.mediaType;
+    static final String GZIP_SUFFIX = ".gz";
+    // Largest file region one mapped buffer can hold
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    private ResultFiles() {}
+
+    static Response serve(QueryRepo.Row row, String ifNoneMatch, String range, String acceptEncoding,
+                          Long offset, Long limit, HttpServletResponse response) throws IOException {
+        File file = new File(row.resultPath);
+        if (!file.exists()) {
+            throw new WebApplicationException("result file missing", 500);
+        }
+
+        boolean gzipped = row.resultPath.endsWith(GZIP_SUFFIX);
+        long stored = file.length();
+        long raw = (row.bytesWritten == null) ? stored : row.bytesWritten;
+        long totalRows = (row.rowsWritten == null) ? 0 : row.rowsWritten;
+
+        if (offset != null || limit != null) {
+            if (row.format != ResultFormat.NDJSON) {
+                throw new IllegalArgumentException("offset/limit are only supported for ndjson results");
+            }
+            return page(row, file, gzipped, stored, totalRows, offset, limit, response);
+        }
+
+        boolean sendStored = !gzipped || acceptsGzip(acceptEncoding);
+        long size = sendStored ? stored : raw;
+        String version = row.id + "-" + Long.toHexString(stored) + "-" + Long.toHexString(file.lastModified());
+        EntityTag etag = new EntityTag((gzipped && sendStored) ? version + "-gzip" : version);
+
+        if (matches(ifNoneMatch, etag)) {
+            return Response.notModified(etag).build();
+        }
+
+        long first = 0;
+        long last = size - 1;
+        Response.ResponseBuilder rb;
+        if (range != null) {
+            long[] r = parseRange(range, size);
+            if (r == null) {
+                return Response.status(416)
+                        .header("Content-Range", "bytes */" + size)
+                        .build();
+            }
+            first = r[0];
+            last = r[1];
+            rb = Response.status(206).header("Content-Range", "bytes " + first + "-" + last + "/" + size);
+        } else {
+            rb = Response.ok().header(HttpHeaders.CACHE_CONTROL, "private");
+        }
+
+        long start = first;
+        long count = Math.max(0, last - first + 1);
+        StreamingOutput body = sendStored
+                ? out -> transfer(file, start, count, out, response)
+                : out -> inflate(file, start, count, out);
+
+        rb.entity(body)
+                .type(row.format.mediaType)
+                .header(HttpHeaders.CONTENT_LENGTH, count)
+                .header("Accept-Ranges", "bytes")
+                .tag(etag);
+        if (gzipped) {
+            rb.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            if (sendStored) rb.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        return rb.build();
+    }
+
+    // Rows [offset, offset+limit), located through the row index
+    private static Response page(QueryRepo.Row row, File file, boolean gzipped, long stored, long totalRows,
+                                 Long offset, Long limit, HttpServletResponse response) throws IOException {
+        long first = (offset == null) ? 0 : offset;
+        long count = (limit == null) ? Long.MAX_VALUE : limit;
+        if (first < 0) throw new IllegalArgumentException("offset must be >= 0");
+        if (count <= 0) throw new IllegalArgumentException("limit must be > 0");
+
+        File index = RowIndex.fileFor(row.resultPath);
+        Response.ResponseBuilder rb = Response.ok().type(NDJSON).header("X-Total-Rows", totalRows);
+
+        if (gzipped) {
+            if (first >= totalRows) return rb.entity(new byte[0]).build();
+            long[] loc = RowIndex.locate(index, first);
+            StreamingOutput body = out -> {
+                try (FileInputStream fin = new FileInputStream(file)) {
+                    fin.getChannel().position(loc[0]);
+                    InputStream in = new GZIPInputStream(new BufferedInputStream(fin, 64 * 1024), 64 * 1024);
+                    RowIndex.copyLines(in, loc[1], count, out);
+                }
+            };
+            return rb.entity(body).build();
+        }
+
+        long start;
+        long end;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            start = RowIndex.offsetOf(ch, stored, index, first, totalRows);
+            end = RowIndex.offsetOf(ch, stored, index, first + Math.min(count, totalRows), totalRows);
+        }
+        long bytes = Math.max(0, end - start);
+        return rb.entity((StreamingOutput) out -> transfer(file, start, bytes, out, response))
+                .header(HttpHeaders.CONTENT_LENGTH, bytes)
+                .build();
+    }
+
+    // Sends [pos, pos+count) of the file to out. The head is copied through out until Jersey
+    // has committed status and headers (it buffers the first bytes to compute Content-Length);
+    // after that, if the response's stream is Jetty's, the rest is mapped as one buffer and given
+    // to HttpOutput.sendContent, which writes it to the socket as it is. sendContent sends the
+    // last content and completes the response, so it is called once, for everything left.
+    // Otherwise (no response, e.g. a follow stream, another container, or more than one buffer
+    // can map) all of it is copied.
+    static void transfer(File file, long pos, long count, OutputStream out, HttpServletResponse response) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (pos + count > ch.size()) throw new IOException("result file truncated");
+            ServletOutputStream raw = (response == null) ? null : response.getOutputStream();
+            long end = pos + count;
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (pos < end) {
+                if (raw instanceof HttpOutput && response.isCommitted() && end - pos <= MAX_MAPPED) {
+                    out.flush();
+                    ((HttpOutput) raw).sendContent(ch.map(FileChannel.MapMode.READ_ONLY, pos, end - pos));
+                    return;
+                }
+                buf.clear().limit((int) Math.min(buf.capacity(), end - pos));
+                int n = ch.read(buf, pos);
+                if (n <= 0) throw new IOException("result file truncated");
+                out.write(buf.array(), 0, n);
+                pos += n;
+            }
+        }
+    }
+
+    // Sends [pos, pos+count) of the decompressed content of a gzip file
+    private static void inflate(File file, long pos, long count, OutputStream out) throws IOException {
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024), 64 * 1024)) {
+            while (pos > 0) {
+                long n = in.skip(pos);
+                if (n <= 0) throw new IOException("result file truncated");
+                pos -= n;
+            }
+            byte[] buf = new byte[64 * 1024];
+            while (count > 0) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, count));
+                if (n < 0) throw new IOException("result file truncated");
+                out.write(buf, 0, n);
+                count -= n;
+            }
+        }
+    }
+
+    // Hard link so the data is shared on disk; falls back to a copy where links aren't supported
+    static void link(File existing, File link) throws IOException {
+        try {
+            Files.createLink(link.toPath(), existing.toPath());
+        } catch (UnsupportedOperationException e) {
+            Files.copy(existing.toPath(), link.toPath());
+        }
+    }
+
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] p = part.trim().split(";");
+            String coding = p[0].trim();
+            if (!coding.equalsIgnoreCase("gzip") && !coding.equals("*")) continue;
+            for (int i = 1; i < p.length; i++) {
+                String q = p[i].trim();
+                if (!q.startsWith("q=")) continue;
+                try {
+                    if (Double.parseDouble(q.substring(2)) <= 0) return false;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean matches(String ifNoneMatch, EntityTag etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.startsWith("W/")) c = c.substring(2);
+            if (c.equals("*") || c.equals("\"" + etag.getValue() + "\"")) return true;
+        }
+        return false;
+    }
+
+    // Parses a single "bytes=a-b", "bytes=a-" or "bytes=-n" range into inclusive [first, last].
+    // Returns null when the range can't be satisfied; multi-range requests get the first range.
+    static long[] parseRange(String header, long size) {
+        String h = header.trim();
+        if (!h.startsWith("bytes=")) return null;
+        String spec = h.substring("bytes=".length()).split(",")[0].trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+
+        try {
+            String a = spec.substring(0, dash).trim();
+            String b = spec.substring(dash + 1).trim();
+            long first;
+            long last;
+            if (a.isEmpty()) {
+                long suffix = Long.parseLong(b);
+                if (suffix <= 0) return null;
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(a);
+                last = b.isEmpty() ? size - 1 : Math.min(Long.parseLong(b), size - 1);
+            }
+            if (first < 0 || first >= size || last < first) return null;
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.example.service;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.example.repo.QueryRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Deletes result files so resultsDir doesn't grow without bound. Every interval it
+//  - stores the download times collected since the last pass (last_read_at),
+//  - expires results older than the TTL,
+//  - expires the least recently downloaded results of each user over the per-user quota,
+//    then everyone's while the total is over the global quota,
+//  - deletes files in resultsDir that no stored result owns (left by crashes, failed
+//    links), walking the directory a slice at a time.
+// An expired query moves SUCCEEDED -> EXPIRED with no result path, so downloads get 410.
+// Candidates come from the queries table, never from listing the directory, and each pass
+// handles at most batchSize results and batchSize directory entries; a backlog is worked
+// off over the following passes.
+public class ResultJanitor implements Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(ResultJanitor.class);
+    // Files younger than this are being written, or their query's success isn't stored yet
+    private static final long ORPHAN_GRACE_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private final QueryRepo store;
+    private final File resultsDir;
+    private final long ttlMs;
+    private final long userQuotaBytes;
+    private final long globalQuotaBytes;
+    private final long intervalMs;
+    private final int batchSize;
+
+    private final Meter expired;
+    private final Meter orphans;
+
+    // Downloads since the last pass, by query id
+    private final ConcurrentHashMap<String, Instant> reads = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService timer;
+    // Results this pass may still expire; only touched by the timer thread
+    private int budget;
+    // Where the orphan sweep left off; reopened once it reaches the end
+    private DirectoryStream<Path> listing;
+    private Iterator<Path> listed;
+
+    public ResultJanitor(QueryRepo store, File resultsDir, long ttlMs, long userQuotaBytes, long globalQuotaBytes,
+                         long intervalMs, int batchSize, MetricRegistry metrics) {
+        this.store = store;
+        this.resultsDir = resultsDir;
+        this.ttlMs = ttlMs;
+        this.userQuotaBytes = userQuotaBytes;
+        this.globalQuotaBytes = globalQuotaBytes;
+        this.intervalMs = intervalMs;
+        this.batchSize = batchSize;
+        this.expired = metrics.meter(MetricRegistry.name(ResultJanitor.class, "expired"));
+        this.orphans = metrics.meter(MetricRegistry.name(ResultJanitor.class, "orphans"));
+    }
+
+    // A result was downloaded; it moves to the back of the eviction order
+    public void read(String queryId) {
+        reads.put(queryId, Instant.now());
+    }
+
+    @Override
+    public void start() {
+        timer = Executors.newSingleThreadScheduledExecutor();
+        timer.scheduleWithFixedDelay(this::tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        if (timer != null) timer.shutdownNow();
+        closeListing();
+    }
+
+    private void tick() {
+        try {
+            flushReads();
+            budget = batchSize;
+            if (ttlMs > 0) {
+                expireAll(store.resultsEndedBefore(Instant.now().minusMillis(ttlMs), budget), -1);
+            }
+            if (userQuotaBytes > 0 || globalQuotaBytes > 0) enforceQuotas();
+            sweepOrphans();
+        } catch (Exception e) {
+            LOG.warn("Result janitor pass failed", e);
+        }
+    }
+
+    private void flushReads() throws Exception {
+        if (reads.isEmpty()) return;
+        Map<String, Instant> batch = new HashMap<>();
+        for (String id : reads.keySet()) {
+            Instant at = reads.remove(id);
+            if (at != null) batch.put(id, at);
+        }
+        store.markRead(batch);
+    }
+
+    private void enforceQuotas() throws Exception {
+        Map<String, Long> usage = store.resultBytesByUser();
+        long total = 0;
+        for (long bytes : usage.values()) total += bytes;
+
+        if (userQuotaBytes > 0) {
+            for (Map.Entry<String, Long> u : usage.entrySet()) {
+                long over = u.getValue() - userQuotaBytes;
+                if (budget <= 0) return;
+                if (over > 0) total -= expireAll(store.leastRecentlyRead(u.getKey(), budget), over);
+            }
+        }
+        if (globalQuotaBytes > 0 && budget > 0 && total > globalQuotaBytes) {
+            expireAll(store.leastRecentlyRead(null, budget), total - globalQuotaBytes);
+        }
+    }
+
+    // Expires results in order until over bytes are freed (all of them for over < 0) or the
+    // pass's budget is used up; returns the bytes freed
+    private long expireAll(List<QueryRepo.Row> results, long over) throws Exception {
+        long freed = 0;
+        for (QueryRepo.Row r : results) {
+            if ((over >= 0 && freed >= over) || budget <= 0) break;
+            budget--;
+            // The row first: a download that finds the file gone then sees EXPIRED
+            if (!store.expire(r.userId, r.id)) continue;
+            delete(r.resultPath);
+            freed += r.storedBytes;
+            expired.mark();
+        }
+        return freed;
+    }
+
+    private static void delete(String resultPath) {
+        if (resultPath == null) return;
+        new File(resultPath).delete();
+        RowIndex.fileFor(resultPath).delete();
+    }
+
+    // Files of resultsDir (subdirectories, i.e. the result cache, are left alone) are named
+    // after their query id up to the first '.'; a file is kept while its query is active or
+    // it is the query's stored result or row index
+    private void sweepOrphans() throws Exception {
+        if (listed == null || !listed.hasNext()) {
+            closeListing();
+            listing = Files.newDirectoryStream(resultsDir.toPath());
+            listed = listing.iterator();
+        }
+        long cutoff = System.currentTimeMillis() - ORPHAN_GRACE_MS;
+        Map<String, List<File>> byId = new HashMap<>();
+        for (int i = 0; i < batchSize && listed.hasNext(); i++) {
+            File f = listed.next().toFile();
+            if (!f.isFile() || f.lastModified() > cutoff) continue;
+            String name = f.getName();
+            int dot = name.indexOf('.');
+            if (!name.startsWith("q_") || dot < 0) continue;
+            byId.computeIfAbsent(name.substring(0, dot), k -> new ArrayList<>()).add(f);
+        }
+        if (byId.isEmpty()) return;
+
+        Map<String, QueryRepo.Row> owners = store.resultsOf(byId.keySet());
+        for (Map.Entry<String, List<File>> e : byId.entrySet()) {
+            QueryRepo.Row r = owners.get(e.getKey());
+            if (r != null && !r.status.terminal()) continue;
+            for (File f : e.getValue()) {
+                if (r != null && r.resultPath != null && owns(r.resultPath, f)) continue;
+                if (f.delete()) orphans.mark();
+            }
+        }
+    }
+
+    private static boolean owns(String resultPath, File f) {
+        String path = f.getAbsolutePath();
+        return path.equals(new File(resultPath).getAbsolutePath())
+                || path.equals(RowIndex.fileFor(resultPath).getAbsolutePath());
+    }
+
+    private void closeListing() {
+        if (listing == null) return;
+        try {
+            listing.close();
+        } catch (IOException ignored) {
+        }
+        listing = null;
+        listed = null;
+    }
+}
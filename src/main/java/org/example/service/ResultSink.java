@@ -0,0 +1,185 @@
+package org.example.service;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Output for one result file. Tracks raw (encoded) and stored (on disk) sizes, keeps the
+// row index when one is requested, and optionally gzips on the fly. When compressing, every index
+// block is its own gzip member, so a page of rows can be decompressed starting from the
+// member the index points at; the concatenated members are still one valid gzip stream.
+final class ResultSink extends OutputStream {
+    private final CountingOutputStream file;
+    private final RowIndex.Writer index;
+    private final int stride;
+    private final GzipMembers gzip;
+    private final OutputStream target;
+
+    private long rows;
+    private long rawBytes;
+    private boolean closed;
+
+    ResultSink(File dataFile, File indexFile, int stride, int gzipLevel) throws IOException {
+        this.file = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile), 64 * 1024));
+        this.stride = stride;
+        this.gzip = (gzipLevel > 0) ? new GzipMembers(file, gzipLevel) : null;
+        this.target = (gzip != null) ? gzip : file;
+        this.index = (indexFile != null) ? new RowIndex.Writer(indexFile, stride) : null;
+    }
+
+    // Called before each row is written; starts a new index block every stride rows
+    void beginRow() throws IOException {
+        if (rows % stride == 0) {
+            if (gzip != null && rows > 0) gzip.finishMember();
+            if (index != null) index.add(file.count);
+        }
+        rows++;
+    }
+
+    long rawBytes() {
+        return rawBytes;
+    }
+
+    long storedBytes() {
+        return file.count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        target.write(b);
+        rawBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        target.write(b, off, len);
+        rawBytes += len;
+    }
+
+    // Makes everything written so far readable from the file: ends the current gzip member
+    // (the next row starts a new one) and pushes the buffer to the OS
+    @Override
+    public void flush() throws IOException {
+        if (gzip != null) gzip.finishMember();
+        file.flush();
+    }
+
+    // Finishes the last gzip member and flushes data and index to disk
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (gzip != null) gzip.close();
+            file.close();
+        } finally {
+            if (index != null) index.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Writes a sequence of gzip members reusing one Deflater
+    private static final class GzipMembers extends OutputStream {
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final OutputStream out;
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[64 * 1024];
+        private boolean inMember;
+        private boolean started;
+        private long memberSize;
+
+        GzipMembers(OutputStream out, int level) {
+            this.out = out;
+            this.deflater = new Deflater(level, true);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!inMember) startMember();
+            crc.update(b, off, len);
+            memberSize += len;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(buf, 0, buf.length, Deflater.NO_FLUSH);
+                if (n > 0) out.write(buf, 0, n);
+            }
+        }
+
+        void finishMember() throws IOException {
+            if (!inMember) return;
+            deflater.finish();
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                if (n > 0) out.write(buf, 0, n);
+            }
+            writeIntLE((int) crc.getValue());
+            writeIntLE((int) memberSize);
+            deflater.reset();
+            crc.reset();
+            memberSize = 0;
+            inMember = false;
+        }
+
+        private void startMember() throws IOException {
+            out.write(HEADER);
+            inMember = true;
+            started = true;
+        }
+
+        private void writeIntLE(int v) throws IOException {
+            out.write(v & 0xFF);
+            out.write((v >> 8) & 0xFF);
+            out.write((v >> 16) & 0xFF);
+            out.write((v >> 24) & 0xFF);
+        }
+
+        // An empty result still gets one (empty) member so the file is valid gzip
+        @Override
+        public void close() throws IOException {
+            if (!started) startMember();
+            finishMember();
+            deflater.end();
+        }
+    }
+}
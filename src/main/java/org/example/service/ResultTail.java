@@ -0,0 +1,89 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.example.dto.QueryStatus;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+// Pieces of GET /queries/{id}/results?follow=true: copying a published byte range of a result
+// that may still be growing, and the status line that ends the stream.
+final class ResultTail {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private ResultTail() {}
+
+    // Sends stored bytes [from, to) as NDJSON. For gzip results the range is made of whole
+    // members (the worker only publishes at member ends) and is decompressed; reading stops
+    // at `to` so a member still being written is never touched.
+    static void copy(File file, long from, long to, OutputStream out) throws IOException {
+        if (to <= from) return;
+        if (!file.getName().endsWith(ResultFiles.GZIP_SUFFIX)) {
+            ResultFiles.transfer(file, from, to - from, out, null);
+            return;
+        }
+        try (FileInputStream fin = new FileInputStream(file)) {
+            fin.getChannel().position(from);
+            InputStream in = new GZIPInputStream(new BufferedInputStream(new Bounded(fin, to - from), 64 * 1024), 64 * 1024);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        }
+    }
+
+    // {"_status":"SUCCEEDED","_rows":1234} (plus "_error" for a failed query)
+    static void trailer(QueryStatus status, long rows, String error, OutputStream out) throws IOException {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("_status", status);
+        line.put("_rows", rows);
+        if (error != null) line.put("_error", error);
+        out.write(MAPPER.writeValueAsBytes(line));
+        out.write('\n');
+    }
+
+    private static final class Bounded extends FilterInputStream {
+        private long left;
+
+        Bounded(InputStream in, long limit) {
+            super(in);
+            this.left = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (left <= 0) return -1;
+            int b = super.read();
+            if (b >= 0) left--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) return -1;
+            int n = super.read(b, off, (int) Math.min(len, left));
+            if (n > 0) left -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long s = super.skip(Math.min(n, left));
+            left -= s;
+            return s;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), left);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.service;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Sparse row-offset index written next to each NDJSON result as "<result>.idx".
+// Layout: the stride as a long, then for every stride-th row the stored byte offset of the
+// block that starts with it (for gzip results, the offset of that block's gzip member).
+// Finding row N costs one positioned read of the index plus a scan of at most stride-1 rows.
+final class RowIndex {
+    private RowIndex() {}
+
+    static File fileFor(String resultPath) {
+        return new File(resultPath + ".idx");
+    }
+
+    static final class Writer implements Closeable {
+        private final DataOutputStream out;
+
+        Writer(File file, int stride) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeLong(stride);
+        }
+
+        void add(long storedOffset) throws IOException {
+            out.writeLong(storedOffset);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Returns {stored offset of the block holding row, rows to skip inside that block}
+    static long[] locate(File index, long row) throws IOException {
+        try (FileChannel idx = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(8);
+            readFully(idx, head, 0);
+            long stride = head.getLong(0);
+
+            ByteBuffer entry = ByteBuffer.allocate(8);
+            readFully(idx, entry, 8 + (row / stride) * 8);
+            return new long[]{entry.getLong(0), row % stride};
+        }
+    }
+
+    // Byte offset where the given 0-based row starts in an uncompressed result;
+    // rows past the end map to dataSize
+    static long offsetOf(FileChannel data, long dataSize, File index, long row, long totalRows) throws IOException {
+        if (row <= 0) return 0;
+        if (row >= totalRows) return dataSize;
+
+        long[] loc = locate(index, row);
+        long pos = loc[0];
+        long skip = loc[1];
+
+        // Skip the remaining rows inside the block by counting newlines
+        ByteBuffer buf = ByteBuffer.allocate(16 * 1024);
+        while (skip > 0) {
+            buf.clear();
+            int n = data.read(buf, pos);
+            if (n <= 0) return dataSize;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n' && --skip == 0) return pos + i + 1;
+            }
+            pos += n;
+        }
+        return pos;
+    }
+
+    // Copies `count` NDJSON lines to out after skipping `skip` lines of in
+    static void copyLines(InputStream in, long skip, long count, OutputStream out) throws IOException {
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while (count > 0 && (n = in.read(buf)) != -1) {
+            int from = 0;
+            while (skip > 0 && from < n) {
+                if (buf[from++] == '\n') skip--;
+            }
+            int to = from;
+            while (count > 0 && to < n) {
+                if (buf[to++] == '\n') count--;
+            }
+            if (to > from) out.write(buf, from, to - from);
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) throw new IOException("row index truncated");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.example.repo.QueryRepo;
+
+import java.time.Duration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Execution history per SQL fingerprint: exponentially weighted runtime, rows and bytes of
+// recent executions. The scheduler uses the expected runtime to dispatch short jobs first.
+// Bounded to maxEntries fingerprints, least recently used dropped first. Time-to-result
+// (submit to finish) is published as timeToResult.short / .long for comparing the two classes.
+public class RuntimeStats {
+    // Weight of the newest sample in the moving averages
+    private static final double ALPHA = 0.3;
+
+    private static final class Stat {
+        double runtimeMs;
+        double rows;
+        double bytes;
+    }
+
+    private final int maxEntries;
+    private final long defaultExpectedMs;
+    private final long shortJobMs;
+
+    // Access-ordered LRU; guarded by this
+    private final LinkedHashMap<String, Stat> stats;
+
+    private final Timer shortTimeToResult;
+    private final Timer longTimeToResult;
+
+    public RuntimeStats(int maxEntries, long defaultExpectedMs, long shortJobMs, MetricRegistry metrics) {
+        this.maxEntries = maxEntries;
+        this.defaultExpectedMs = defaultExpectedMs;
+        this.shortJobMs = shortJobMs;
+        this.stats = new LinkedHashMap<String, Stat>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stat> eldest) {
+                return size() > RuntimeStats.this.maxEntries;
+            }
+        };
+        this.shortTimeToResult = metrics.timer(MetricRegistry.name(RuntimeStats.class, "timeToResult", "short"));
+        this.longTimeToResult = metrics.timer(MetricRegistry.name(RuntimeStats.class, "timeToResult", "long"));
+        metrics.register(MetricRegistry.name(RuntimeStats.class, "entries"), (Gauge<Integer>) this::size);
+    }
+
+    public static String fingerprint(String sql) {
+        return SqlFingerprint.of(sql).hash;
+    }
+
+    // Expected runtime for a fingerprint; defaultExpectedMs when it has never run
+    public synchronized long expectedMs(String fingerprint) {
+        Stat s = stats.get(fingerprint);
+        return (s == null) ? defaultExpectedMs : Math.round(s.runtimeMs);
+    }
+
+    // A finished execution. Failed runs pass rows/bytes < 0: their runtime still counts
+    // (a statement timeout is as informative as a success) but their output does not.
+    public synchronized void record(String fingerprint, long runtimeMs, long rows, long bytes) {
+        if (maxEntries <= 0) return;
+        Stat s = stats.get(fingerprint);
+        if (s == null) {
+            s = new Stat();
+            s.runtimeMs = runtimeMs;
+            s.rows = Math.max(rows, 0);
+            s.bytes = Math.max(bytes, 0);
+            stats.put(fingerprint, s);
+        } else {
+            s.runtimeMs += ALPHA * (runtimeMs - s.runtimeMs);
+            if (rows >= 0) s.rows += ALPHA * (rows - s.rows);
+            if (bytes >= 0) s.bytes += ALPHA * (bytes - s.bytes);
+        }
+    }
+
+    // Warms the store from past executions so dispatch order is informed right after a restart
+    public void seed(List<QueryRepo.Row> history) {
+        for (QueryRepo.Row r : history) {
+            long ms = Duration.between(r.startedAt, r.endedAt).toMillis();
+            record(fingerprint(r.sql), ms,
+                    (r.rowsWritten == null) ? -1 : r.rowsWritten,
+                    (r.bytesWritten == null) ? -1 : r.bytesWritten);
+        }
+    }
+
+    public void timeToResult(long expectedMs, long elapsedMs) {
+        Timer t = (expectedMs <= shortJobMs) ? shortTimeToResult : longTimeToResult;
+        t.update(elapsedMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized int size() {
+        return stats.size();
+    }
+}
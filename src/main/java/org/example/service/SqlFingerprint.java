@@ -0,0 +1,64 @@
+package org.example.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Normalized identity of a SQL text: its tokens (comments dropped, unquoted words lower-cased,
+// literals and quoted identifiers kept as written) joined by single spaces, so trivially
+// different spellings of the same dashboard query share one fingerprint. SqlGuard computes it
+// once at submit; the result cache key and runtime history reuse it. A template's fingerprint
+// leaves out its parameter values, so runtime history is shared by all executions of it.
+final class SqlFingerprint {
+    // Functions whose result changes between executions; queries using them are never shared
+    private static final Set<String> VOLATILE = new HashSet<>(Arrays.asList(
+            "now", "random", "clock_timestamp", "current_timestamp", "current_date", "current_time",
+            "localtime", "localtimestamp", "statement_timestamp", "transaction_timestamp", "timeofday",
+            "pg_sleep", "nextval", "setseed", "gen_random_uuid", "txid_current", "pg_backend_pid"
+    ));
+
+    final String hash;
+    final boolean deterministic;
+    // Number of ? placeholders
+    final int placeholders;
+
+    private SqlFingerprint(String hash, boolean deterministic, int placeholders) {
+        this.hash = hash;
+        this.deterministic = deterministic;
+        this.placeholders = placeholders;
+    }
+
+    static SqlFingerprint of(List<SqlTokenizer.Token> tokens) {
+        StringBuilder sb = new StringBuilder();
+        boolean deterministic = true;
+        int placeholders = 0;
+        for (SqlTokenizer.Token t : tokens) {
+            if (t.is(SqlTokenizer.Kind.PARAM, "?")) placeholders++;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append(t.text);
+            if (t.kind == SqlTokenizer.Kind.WORD && VOLATILE.contains(t.text)) deterministic = false;
+        }
+        return new SqlFingerprint(sha256(sb.toString()), deterministic, placeholders);
+    }
+
+    // For SQL stored earlier, which the guard has already accepted
+    static SqlFingerprint of(String sql) {
+        return of(SqlTokenizer.tokenize(sql));
+    }
+
+    static String sha256(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) sb.append(String.format(Locale.ROOT, "%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,32 +1,95 @@
 package org.example.service;
 
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class SqlGuard {
+    // Statements (or clauses, like SELECT INTO) that write or change the schema
+    private static final Set<String> FORBIDDEN = new HashSet<>(Arrays.asList(
+            "insert", "update", "delete", "drop", "alter", "create", "copy", "grant", "revoke",
+            "truncate", "merge", "into"
+    ));
+
     private final int maxChars;
+    private final int cacheSize;
+
+    // Verdicts by exact SQL text: the fingerprint, or the rejection message. Access-ordered LRU,
+    // guarded by itself. Keyed by the text rather than the fingerprint, since computing the
+    // fingerprint is already the tokenizing the cache saves.
+    private final LinkedHashMap<String, Object> verdicts;
 
-    public SqlGuard(int maxChars) {
+    public SqlGuard(int maxChars, int cacheSize) {
 
         this.maxChars = maxChars;
+        this.cacheSize = cacheSize;
+        this.verdicts = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > SqlGuard.this.cacheSize;
+            }
+        };
     }
 
-    public void validate(String sql) {
+    // Throws IllegalArgumentException for anything but a single read-only SELECT
+    public SqlFingerprint validate(String sql) {
         // Trim the input
         String s = (sql == null) ? "" : sql.trim();
-        // handling empty string, sql length exceeding max length, multiple statements cases
+        // handling empty string and sql length exceeding max length before anything is cached
         if (s.isEmpty()) throw new IllegalArgumentException("sql required");
         if (s.length() > maxChars) throw new IllegalArgumentException("sql too long");
-        if (s.contains(";")) throw new IllegalArgumentException("multiple statements are not allowed");
-        //  Allowing only select statements
-        String low = s.toLowerCase(Locale.ROOT);
-        if (!low.startsWith("select")) throw new IllegalArgumentException("only SELECT allowed");
 
-        String[] forbidden = {
-                "insert", "update", "delete", "drop", "alter", "create", "copy", "grant", "revoke"
-        };
-       // Throwing error when DML,DDL is used
-        for (String kw : forbidden) {
-            if (low.contains(kw)) throw new IllegalArgumentException("keyword not allowed: " + kw);
+        Object verdict;
+        synchronized (verdicts) {
+            verdict = verdicts.get(s);
+        }
+        if (verdict == null) {
+            try {
+                verdict = check(SqlTokenizer.tokenize(s));
+            } catch (IllegalArgumentException e) {
+                verdict = e.getMessage();
+            }
+            if (cacheSize > 0) {
+                synchronized (verdicts) {
+                    verdicts.put(s, verdict);
+                }
+            }
+        }
+        if (verdict instanceof String) throw new IllegalArgumentException((String) verdict);
+        return (SqlFingerprint) verdict;
+    }
+
+    private static SqlFingerprint check(List<SqlTokenizer.Token> tokens) {
+        if (tokens.isEmpty()) throw new IllegalArgumentException("sql required");
+
+        int first = 0;
+        while (first < tokens.size() && tokens.get(first).is(SqlTokenizer.Kind.SYMBOL, "(")) first++;
+        //  Allowing only select statements (a WITH query's body is checked like the rest)
+        if (first == tokens.size()
+                || !(tokens.get(first).is(SqlTokenizer.Kind.WORD, "select")
+                || tokens.get(first).is(SqlTokenizer.Kind.WORD, "with"))) {
+            throw new IllegalArgumentException("only SELECT allowed");
+        }
+        // Keywords count as such only outside comments, literals and quoted identifiers.
+        // Parentheses must balance, so the statement can be wrapped (COPY (...) TO STDOUT)
+        // without its text closing the wrapper early.
+        int depth = 0;
+        for (SqlTokenizer.Token t : tokens) {
+            if (t.is(SqlTokenizer.Kind.SYMBOL, ";")) {
+                throw new IllegalArgumentException("multiple statements are not allowed");
+            }
+            if (t.is(SqlTokenizer.Kind.SYMBOL, "(")) depth++;
+            if (t.is(SqlTokenizer.Kind.SYMBOL, ")") && --depth < 0) {
+                throw new IllegalArgumentException("unbalanced parentheses");
+            }
+            if (t.kind == SqlTokenizer.Kind.WORD && FORBIDDEN.contains(t.text)) {
+                throw new IllegalArgumentException("keyword not allowed: " + t.text);
+            }
         }
+        if (depth != 0) throw new IllegalArgumentException("unbalanced parentheses");
+        return SqlFingerprint.of(tokens);
     }
 }
@@ -0,0 +1,107 @@
+package org.example.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Collections;
+import java.util.List;
+
+// Parameter values of a query template (SQL with ? placeholders). Kept as a JSON array on the
+// row and bound as JDBC parameters, so every execution of a template has the same SQL text and
+// reuses the worker connection's server-side prepared statement.
+final class SqlParams {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final TypeReference<List<Object>> LIST = new TypeReference<List<Object>>() {};
+
+    private SqlParams() {}
+
+    // Throws IllegalArgumentException unless params fill the template's placeholders with scalars
+    static void check(List<Object> params, int placeholders) {
+        int n = (params == null) ? 0 : params.size();
+        if (n != placeholders) {
+            throw new IllegalArgumentException("sql has " + placeholders + " placeholders but " + n + " params were given");
+        }
+        for (int i = 0; i < n; i++) {
+            Object v = params.get(i);
+            if (v != null && !(v instanceof String) && !(v instanceof Number) && !(v instanceof Boolean)) {
+                throw new IllegalArgumentException("params[" + i + "] must be a string, number, boolean or null");
+            }
+        }
+    }
+
+    // null for plain SQL
+    static String toJson(List<Object> params) {
+        if (params == null || params.isEmpty()) return null;
+        try {
+            return MAPPER.writeValueAsString(params);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid params", e);
+        }
+    }
+
+    static List<Object> fromJson(String json) {
+        if (json == null) return Collections.emptyList();
+        try {
+            return MAPPER.readValue(json, LIST);
+        } catch (IOException e) {
+            throw new IllegalStateException("stored params unreadable", e);
+        }
+    }
+
+    // The template with its values written in as literals, for COPY, which takes no bind
+    // parameters. Literals are as untyped as bound values: strings and nulls still get their
+    // type from where they're used.
+    static String inline(String sql, List<Object> params) {
+        if (params.isEmpty()) return sql;
+        StringBuilder sb = new StringBuilder(sql.length() + 16 * params.size());
+        int from = 0;
+        int p = 0;
+        for (SqlTokenizer.Token t : SqlTokenizer.tokenize(sql)) {
+            if (!t.is(SqlTokenizer.Kind.PARAM, "?")) continue;
+            sb.append(sql, from, t.end - 1).append(literal(params.get(p++)));
+            from = t.end;
+        }
+        return sb.append(sql, from, sql.length()).toString();
+    }
+
+    private static String literal(Object v) {
+        if (v == null) return "null";
+        if (v instanceof Boolean) return v.toString();
+        // Parenthesized so a negative value can't join a preceding - into a comment
+        if (v instanceof BigDecimal) return "(" + ((BigDecimal) v).toPlainString() + ")";
+        if (v instanceof Number) return "(" + v + ")";
+        // E'' reads the same whatever standard_conforming_strings is set to
+        return "E'" + ((String) v).replace("\\", "\\\\").replace("'", "''") + "'";
+    }
+
+    // Strings and nulls go out untyped, so Postgres infers their type from where they're used
+    // (a date, an enum, a numeric column) as it would for a literal
+    static void bind(PreparedStatement ps, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object v = params.get(i);
+            int p = i + 1;
+            if (v == null) {
+                ps.setNull(p, Types.OTHER);
+            } else if (v instanceof String) {
+                ps.setObject(p, v, Types.OTHER);
+            } else if (v instanceof Boolean) {
+                ps.setBoolean(p, (Boolean) v);
+            } else if (v instanceof BigDecimal) {
+                ps.setBigDecimal(p, (BigDecimal) v);
+            } else if (v instanceof BigInteger) {
+                ps.setBigDecimal(p, new BigDecimal((BigInteger) v));
+            } else if (v instanceof Double || v instanceof Float) {
+                ps.setDouble(p, ((Number) v).doubleValue());
+            } else {
+                ps.setLong(p, ((Number) v).longValue());
+            }
+        }
+    }
+}
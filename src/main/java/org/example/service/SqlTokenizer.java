@@ -0,0 +1,151 @@
+package org.example.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Splits SQL into tokens the way Postgres' lexer does for what the guard and fingerprints need:
+// comments (nested /* */ too) are dropped, and string literals ('..', E'..', $tag$..$tag$) and
+// quoted identifiers stay single tokens, so nothing inside them is read as a keyword.
+// Unquoted words are lower-cased. A ? is always a JDBC placeholder (PARAM), as for pgjdbc.
+final class SqlTokenizer {
+    enum Kind { WORD, QUOTED, STRING, NUMBER, PARAM, SYMBOL }
+
+    static final class Token {
+        final Kind kind;
+        final String text;
+        // Offset just past the token in the SQL text
+        final int end;
+
+        Token(Kind kind, String text, int end) {
+            this.kind = kind;
+            this.text = text;
+            this.end = end;
+        }
+
+        boolean is(Kind k, String t) {
+            return kind == k && text.equals(t);
+        }
+    }
+
+    private static final String OPERATOR_CHARS = "+-*/<>=~!@#%^&|`:";
+
+    private SqlTokenizer() {}
+
+    static List<Token> tokenize(String sql) {
+        List<Token> out = new ArrayList<>();
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char ch = sql.charAt(i);
+            char next = (i + 1 < n) ? sql.charAt(i + 1) : 0;
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if (ch == '-' && next == '-') {
+                while (i < n && sql.charAt(i) != '\n') i++;
+            } else if (ch == '/' && next == '*') {
+                i = skipBlockComment(sql, i);
+            } else if (ch == '\'') {
+                int end = quoted(sql, i, '\'', false);
+                out.add(new Token(Kind.STRING, sql.substring(i, end), end));
+                i = end;
+            } else if (ch == '"') {
+                int end = quoted(sql, i, '"', false);
+                out.add(new Token(Kind.QUOTED, sql.substring(i, end), end));
+                i = end;
+            } else if (ch == '?') {
+                out.add(new Token(Kind.PARAM, "?", ++i));
+            } else if (ch == '$' && Character.isDigit(next)) {
+                int start = i++;
+                while (i < n && Character.isDigit(sql.charAt(i))) i++;
+                out.add(new Token(Kind.PARAM, sql.substring(start, i), i));
+            } else if (ch == '$' && dollarTag(sql, i) != null) {
+                String tag = dollarTag(sql, i);
+                int close = sql.indexOf(tag, i + tag.length());
+                if (close < 0) throw new IllegalArgumentException("unterminated string literal");
+                int end = close + tag.length();
+                out.add(new Token(Kind.STRING, sql.substring(i, end), end));
+                i = end;
+            } else if (Character.isLetter(ch) || ch == '_') {
+                // E'..' (backslash escapes), B'..', X'..', N'..' are prefixed string literals
+                if (next == '\'' && "eEbBxXnN".indexOf(ch) >= 0) {
+                    int end = quoted(sql, i + 1, '\'', ch == 'e' || ch == 'E');
+                    out.add(new Token(Kind.STRING, sql.substring(i, end), end));
+                    i = end;
+                    continue;
+                }
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_' || sql.charAt(i) == '$')) i++;
+                out.add(new Token(Kind.WORD, sql.substring(start, i).toLowerCase(Locale.ROOT), i));
+            } else if (Character.isDigit(ch) || (ch == '.' && Character.isDigit(next))) {
+                int start = i;
+                while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    char c = sql.charAt(i++);
+                    // Exponent sign: 1e-5
+                    if ((c == 'e' || c == 'E') && i < n && (sql.charAt(i) == '-' || sql.charAt(i) == '+')) i++;
+                }
+                out.add(new Token(Kind.NUMBER, sql.substring(start, i), i));
+            } else if (OPERATOR_CHARS.indexOf(ch) >= 0) {
+                int start = i++;
+                while (i < n && OPERATOR_CHARS.indexOf(sql.charAt(i)) >= 0 && !commentStart(sql, i)) i++;
+                out.add(new Token(Kind.SYMBOL, sql.substring(start, i), i));
+            } else {
+                out.add(new Token(Kind.SYMBOL, String.valueOf(ch), ++i));
+            }
+        }
+        return out;
+    }
+
+    // Index just past the literal opened at start; a doubled quote is an escaped one
+    private static int quoted(String sql, int start, char quote, boolean backslashEscapes) {
+        int n = sql.length();
+        int i = start + 1;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (backslashEscapes && c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < n && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException(quote == '"' ? "unterminated quoted identifier" : "unterminated string literal");
+    }
+
+    private static int skipBlockComment(String sql, int start) {
+        int n = sql.length();
+        int depth = 0;
+        int i = start;
+        while (i < n) {
+            if (sql.startsWith("/*", i)) {
+                depth++;
+                i += 2;
+            } else if (sql.startsWith("*/", i)) {
+                i += 2;
+                if (--depth == 0) return i;
+            } else {
+                i++;
+            }
+        }
+        throw new IllegalArgumentException("unterminated comment");
+    }
+
+    // "$tag$" (or "$$") opening a dollar-quoted string at i, or null
+    private static String dollarTag(String sql, int i) {
+        int n = sql.length();
+        int j = i + 1;
+        if (j < n && (Character.isLetter(sql.charAt(j)) || sql.charAt(j) == '_')) {
+            while (j < n && (Character.isLetterOrDigit(sql.charAt(j)) || sql.charAt(j) == '_')) j++;
+        }
+        return (j < n && sql.charAt(j) == '$') ? sql.substring(i, j + 1) : null;
+    }
+
+    private static boolean commentStart(String sql, int i) {
+        return sql.startsWith("--", i) || sql.startsWith("/*", i);
+    }
+}
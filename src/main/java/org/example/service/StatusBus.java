@@ -0,0 +1,71 @@
+package org.example.service;
+
+import io.dropwizard.lifecycle.Managed;
+import org.example.dto.QueryStatus;
+import org.example.repo.TransitionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// In-process fan-out of query transitions to long-poll and SSE waiters. Fed by QueryRepo
+// transitions, which in distributed mode include other nodes' changes via ChangeFeed.
+// Subscribers run on the bus's own threads so the worker that made the transition never
+// waits on a client's DB read or socket write.
+public class StatusBus implements TransitionListener, Managed {
+    private static final Logger LOG = LoggerFactory.getLogger(StatusBus.class);
+
+    public interface Subscriber {
+        void onStatus(QueryStatus status) throws Exception;
+    }
+
+    private final ConcurrentHashMap<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService notifier;
+
+    public StatusBus(int threads) {
+        this.notifier = Executors.newFixedThreadPool(threads);
+    }
+
+    // Returns the action that removes the subscription
+    public Runnable subscribe(String queryId, Subscriber s) {
+        subscribers.computeIfAbsent(queryId, k -> new CopyOnWriteArrayList<>()).add(s);
+        return () -> subscribers.computeIfPresent(queryId, (k, list) -> {
+            list.remove(s);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void stop() {
+        notifier.shutdownNow();
+    }
+
+    @Override
+    public void onTransition(String id, String userId, QueryStatus status) {
+        List<Subscriber> list = subscribers.get(id);
+        if (list == null) return;
+        for (Subscriber s : list) {
+            try {
+                notifier.execute(() -> {
+                    try {
+                        s.onStatus(status);
+                    } catch (Exception e) {
+                        LOG.warn("Status subscriber failed queryId={}", id, e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Stopped: transitions the writer stores on its way down have no one to tell
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.jackson.Jackson;
+import org.example.dto.QueryResponse;
+import org.example.dto.QueryStatus;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import java.io.IOException;
+
+// One text/event-stream connection following a query. Every distinct status is sent as
+//   event: status
+//   data: <QueryResponse json>
+// and the stream ends after the terminal one.
+final class StatusStream {
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private final ChunkedOutput<String> out = new ChunkedOutput<>(String.class);
+    // Guarded by this
+    private QueryStatus last;
+
+    ChunkedOutput<String> output() {
+        return out;
+    }
+
+    // Sends the response unless its status was already sent; false once the stream is over
+    synchronized boolean send(QueryResponse r) {
+        if (out.isClosed()) return false;
+        if (r.status == last) return true;
+        last = r.status;
+        try {
+            out.write("event: status\ndata: " + MAPPER.writeValueAsString(r) + "\n\n");
+            if (r.status.terminal()) out.close();
+        } catch (IOException e) {
+            // Client went away
+            close();
+        }
+        return !out.isClosed();
+    }
+
+    synchronized void close() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package org.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Thread-per-task executor on virtual threads. The build targets Java 8, so the Java 21 API
+// is looked up reflectively; older runtimes fall back to a cached platform thread pool.
+final class VirtualThreads {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private VirtualThreads() {}
+
+    static ExecutorService perTaskExecutor() {
+        try {
+            ExecutorService ex = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+            LOG.info("Running queries on virtual threads");
+            return ex;
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Virtual threads need Java 21+, running queries on a cached thread pool instead");
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
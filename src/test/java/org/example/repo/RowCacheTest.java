@@ -0,0 +1,122 @@
+package org.example.repo;
+
+import com.codahale.metrics.MetricRegistry;
+import org.example.dto.QueryStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RowCacheTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    @Test
+    void returnsCopiesOfCachedRows() {
+        RowCache cache = new RowCache(10, 60_000, true, metrics);
+        QueryRepo.Row r = row("q_1", QueryStatus.PENDING);
+        cache.put(r);
+        r.status = QueryStatus.FAILED;
+
+        QueryRepo.Row got = cache.get("q_1");
+        assertEquals(QueryStatus.PENDING, got.status);
+        got.status = QueryStatus.CANCELLED;
+        assertEquals(QueryStatus.PENDING, cache.get("q_1").status);
+        assertNotSame(cache.get("q_1"), cache.get("q_1"));
+    }
+
+    @Test
+    void updatesCachedRowsInPlace() {
+        RowCache cache = new RowCache(10, 60_000, true, metrics);
+        cache.put(row("q_1", QueryStatus.PENDING));
+        cache.update("q_1", r -> r.status = QueryStatus.RUNNING);
+        assertEquals(QueryStatus.RUNNING, cache.get("q_1").status);
+
+        // Nothing to update: stays a miss
+        cache.update("q_2", r -> r.status = QueryStatus.RUNNING);
+        assertNull(cache.get("q_2"));
+    }
+
+    @Test
+    void invalidateDropsTheRow() {
+        RowCache cache = new RowCache(10, 60_000, true, metrics);
+        cache.put(row("q_1", QueryStatus.SUCCEEDED));
+        cache.invalidate("q_1");
+        assertNull(cache.get("q_1"));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedRow() {
+        RowCache cache = new RowCache(2, 60_000, true, metrics);
+        cache.put(row("q_1", QueryStatus.SUCCEEDED));
+        cache.put(row("q_2", QueryStatus.SUCCEEDED));
+        assertNotNull(cache.get("q_1"));
+        cache.put(row("q_3", QueryStatus.SUCCEEDED));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("q_2"));
+        assertNotNull(cache.get("q_1"));
+        assertNotNull(cache.get("q_3"));
+    }
+
+    @Test
+    void terminalRowsExpireAfterTheTtl() {
+        RowCache cache = new RowCache(10, 0, true, metrics);
+        cache.put(row("q_1", QueryStatus.SUCCEEDED));
+        assertNull(cache.get("q_1"));
+        assertEquals(0, cache.size());
+
+        // Active rows have no TTL: they change only through this process
+        cache.put(row("q_2", QueryStatus.RUNNING));
+        assertNotNull(cache.get("q_2"));
+    }
+
+    @Test
+    void activeRowsAreOnlyCachedWhenAllowed() {
+        RowCache cache = new RowCache(10, 60_000, false, metrics);
+        cache.put(row("q_1", QueryStatus.PENDING));
+        assertNull(cache.get("q_1"));
+
+        cache.put(row("q_2", QueryStatus.SUCCEEDED));
+        assertNotNull(cache.get("q_2"));
+        // Moving back to active (e.g. a lease requeue replayed here) drops it
+        cache.update("q_2", r -> r.status = QueryStatus.PENDING);
+        assertNull(cache.get("q_2"));
+    }
+
+    @Test
+    void fillSkipsActiveRowsReadDuringAChange() {
+        RowCache cache = new RowCache(10, 60_000, true, metrics);
+        long before = cache.version();
+        cache.invalidate("q_other");
+
+        cache.fill(row("q_1", QueryStatus.RUNNING), before);
+        assertNull(cache.get("q_1"));
+
+        cache.fill(row("q_2", QueryStatus.SUCCEEDED), before);
+        assertNotNull(cache.get("q_2"));
+
+        cache.fill(row("q_1", QueryStatus.RUNNING), cache.version());
+        assertNotNull(cache.get("q_1"));
+    }
+
+    @Test
+    void countsHitsAndMisses() {
+        RowCache cache = new RowCache(10, 60_000, true, metrics);
+        cache.put(row("q_1", QueryStatus.SUCCEEDED));
+        cache.get("q_1");
+        cache.get("q_1");
+        cache.get("q_2");
+        assertEquals(2, metrics.meter(MetricRegistry.name(RowCache.class, "hits")).getCount());
+        assertEquals(1, metrics.meter(MetricRegistry.name(RowCache.class, "misses")).getCount());
+    }
+
+    private static QueryRepo.Row row(String id, QueryStatus status) {
+        QueryRepo.Row r = new QueryRepo.Row();
+        r.id = id;
+        r.userId = "u";
+        r.status = status;
+        return r;
+    }
+}
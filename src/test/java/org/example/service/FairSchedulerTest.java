@@ -0,0 +1,55 @@
+package org.example.service;
+
+import com.codahale.metrics.MetricRegistry;
+import org.example.dto.ResultFormat;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FairSchedulerTest {
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    @Test
+    void recordsQueueWaitPerUser() throws InterruptedException {
+        FairScheduler s = scheduler(10);
+        run(s, "a");
+        run(s, "a");
+        run(s, "b");
+        assertEquals(2, metrics.timer(name("a")).getCount());
+        assertEquals(1, metrics.timer(name("b")).getCount());
+    }
+
+    @Test
+    void dropsTheLeastRecentlyDispatchedUsersTimer() throws InterruptedException {
+        FairScheduler s = scheduler(2);
+        run(s, "a");
+        run(s, "b");
+        run(s, "a");
+        run(s, "c");
+
+        assertTrue(metrics.getTimers().containsKey(name("a")));
+        assertFalse(metrics.getTimers().containsKey(name("b")));
+        assertTrue(metrics.getTimers().containsKey(name("c")));
+        assertEquals(2, metrics.getTimers().size());
+    }
+
+    private FairScheduler scheduler(int maxTrackedUsers) {
+        return new FairScheduler(100, 10, 10, 10, 1000, 1.0, Collections.emptyMap(), maxTrackedUsers, metrics);
+    }
+
+    private static void run(FairScheduler s, String userId) throws InterruptedException {
+        QueryWorker.Job job = new QueryWorker.Job("q_" + userId, userId, "select 1", Collections.emptyList(),
+                ResultFormat.NDJSON, Instant.now(), null, null, 1, false, null);
+        assertTrue(s.offer(job));
+        s.done(s.take());
+    }
+
+    private static String name(String userId) {
+        return MetricRegistry.name(FairScheduler.class, "queueWait", userId);
+    }
+}
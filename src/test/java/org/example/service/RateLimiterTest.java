@@ -0,0 +1,106 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    // One token a minute: nothing refills while a test runs
+
+    @Test
+    void newBucketStartsFull() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        assertTrue(limiter.allow("u"));
+        assertTrue(limiter.allow("u"));
+        assertTrue(limiter.allow("u"));
+        assertFalse(limiter.allow("u"));
+    }
+
+    @Test
+    void usersHaveSeparateBuckets() {
+        RateLimiter limiter = new RateLimiter(1, 1);
+        assertTrue(limiter.allow("a"));
+        assertFalse(limiter.allow("a"));
+        assertTrue(limiter.allow("b"));
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    void takesAllTokensOfABatchOrNone() {
+        RateLimiter limiter = new RateLimiter(1, 5);
+        assertTrue(limiter.allow("u", 3));
+        assertFalse(limiter.allow("u", 3));
+        assertTrue(limiter.allow("u", 2));
+        assertFalse(limiter.allow("u"));
+    }
+
+    @Test
+    void batchLargerThanBurstTakesTheWholeBucket() {
+        RateLimiter limiter = new RateLimiter(1, 2);
+        assertTrue(limiter.allow("u", 5));
+        assertFalse(limiter.allow("u"));
+        assertFalse(limiter.allow("u", 5));
+
+        RateLimiter partial = new RateLimiter(1, 2);
+        assertTrue(partial.allow("u"));
+        assertFalse(partial.allow("u", 5));
+    }
+
+    @Test
+    void burstBelowOneAllowsOneRequest() {
+        RateLimiter limiter = new RateLimiter(1, 0);
+        assertTrue(limiter.allow("u"));
+        assertFalse(limiter.allow("u"));
+    }
+
+    @Test
+    void refillsContinuously() throws InterruptedException {
+        // 600000 per minute: a token every 100us
+        RateLimiter limiter = new RateLimiter(600_000, 1);
+        assertTrue(limiter.allow("u"));
+        Thread.sleep(5);
+        assertTrue(limiter.allow("u"));
+    }
+
+    @Test
+    void zeroRateDisablesTheLimit() {
+        RateLimiter limiter = new RateLimiter(0, 0);
+        for (int i = 0; i < 1000; i++) assertTrue(limiter.allow("u", 10));
+        assertEquals(0, limiter.size());
+    }
+
+    @Test
+    void concurrentRequestsNeverExceedTheBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 50);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger allowed = new AtomicInteger();
+        try {
+            for (int t = 0; t < 8; t++) {
+                threads.execute(() -> {
+                    try {
+                        go.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        if (limiter.allow("u")) allowed.incrementAndGet();
+                    }
+                });
+            }
+            go.countDown();
+        } finally {
+            threads.shutdown();
+            assertTrue(threads.awaitTermination(10, TimeUnit.SECONDS));
+        }
+        assertEquals(50, allowed.get());
+    }
+}
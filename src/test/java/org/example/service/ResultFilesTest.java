@@ -0,0 +1,254 @@
+package org.example.service;
+
+import org.example.dto.ResultFormat;
+import org.example.repo.QueryRepo;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+class ResultFilesTest {
+    private static final int ROWS = 10;
+    private static final int STRIDE = 4;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void parsesSingleByteRanges() {
+        assertArrayEquals(new long[]{0, 9}, ResultFiles.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[]{90, 99}, ResultFiles.parseRange("bytes=90-", 100));
+        assertArrayEquals(new long[]{90, 99}, ResultFiles.parseRange("bytes=-10", 100));
+        assertArrayEquals(new long[]{0, 99}, ResultFiles.parseRange("bytes=-500", 100));
+        assertArrayEquals(new long[]{95, 99}, ResultFiles.parseRange("bytes=95-200", 100));
+        assertArrayEquals(new long[]{0, 1}, ResultFiles.parseRange(" bytes=0-1, 5-6", 100));
+    }
+
+    @Test
+    void rejectsUnsatisfiableRanges() {
+        assertNull(ResultFiles.parseRange("bytes=100-", 100));
+        assertNull(ResultFiles.parseRange("bytes=5-3", 100));
+        assertNull(ResultFiles.parseRange("bytes=-0", 100));
+        assertNull(ResultFiles.parseRange("bytes=0-0", 0));
+        assertNull(ResultFiles.parseRange("items=0-1", 100));
+        assertNull(ResultFiles.parseRange("bytes=a-b", 100));
+        assertNull(ResultFiles.parseRange("bytes=5", 100));
+    }
+
+    @Test
+    void locatesRowsThroughTheIndex() throws IOException {
+        QueryRepo.Row row = write(0);
+        File data = new File(row.resultPath);
+        String all = expected(0, ROWS);
+        try (FileChannel ch = FileChannel.open(data.toPath(), StandardOpenOption.READ)) {
+            for (int r = 0; r <= ROWS; r++) {
+                long offset = RowIndex.offsetOf(ch, data.length(), RowIndex.fileFor(row.resultPath), r, ROWS);
+                assertEquals(expected(0, r).length(), offset, "row " + r);
+            }
+        }
+        assertEquals(all.length(), data.length());
+        assertArrayEquals(new long[]{0, 1}, RowIndex.locate(RowIndex.fileFor(row.resultPath), 1));
+        assertEquals(expected(0, STRIDE).length(), RowIndex.locate(RowIndex.fileFor(row.resultPath), STRIDE + 2)[0]);
+    }
+
+    @Test
+    void servesTheWholeResultWithAnETag() throws IOException {
+        QueryRepo.Row row = write(0);
+        Response r = ResultFiles.serve(row, null, null, null, null, null, null);
+        assertEquals(200, r.getStatus());
+        assertEquals(expected(0, ROWS), body(r));
+        assertEquals(String.valueOf(expected(0, ROWS).length()), r.getHeaderString("Content-Length"));
+        assertEquals("bytes", r.getHeaderString("Accept-Ranges"));
+
+        EntityTag etag = r.getEntityTag();
+        Response again = ResultFiles.serve(row, "\"" + etag.getValue() + "\"", null, null, null, null, null);
+        assertEquals(304, again.getStatus());
+        assertEquals(304, ResultFiles.serve(row, "W/\"x\", *", null, null, null, null, null).getStatus());
+        assertEquals(200, ResultFiles.serve(row, "\"other\"", null, null, null, null, null).getStatus());
+    }
+
+    @Test
+    void servesByteRanges() throws IOException {
+        QueryRepo.Row row = write(0);
+        long size = expected(0, ROWS).length();
+
+        Response r = ResultFiles.serve(row, null, "bytes=3-10", null, null, null, null);
+        assertEquals(206, r.getStatus());
+        assertEquals("bytes 3-10/" + size, r.getHeaderString("Content-Range"));
+        assertEquals(expected(0, ROWS).substring(3, 11), body(r));
+
+        Response past = ResultFiles.serve(row, null, "bytes=" + size + "-", null, null, null, null);
+        assertEquals(416, past.getStatus());
+        assertEquals("bytes */" + size, past.getHeaderString("Content-Range"));
+    }
+
+    @Test
+    void gzipResultsAreSentStoredOrInflated() throws IOException {
+        QueryRepo.Row row = write(6);
+        Response stored = ResultFiles.serve(row, null, null, "br, gzip;q=0.8", null, null, null);
+        assertEquals("gzip", stored.getHeaderString("Content-Encoding"));
+        assertEquals(String.valueOf(new File(row.resultPath).length()), stored.getHeaderString("Content-Length"));
+
+        Response inflated = ResultFiles.serve(row, null, null, "gzip;q=0", null, null, null);
+        assertNull(inflated.getHeaderString("Content-Encoding"));
+        assertEquals(expected(0, ROWS), body(inflated));
+        assertNotEquals(stored.getEntityTag(), inflated.getEntityTag());
+    }
+
+    @Test
+    void pagesRowsOfPlainAndGzipResults() throws IOException {
+        for (int level : new int[]{0, 6}) {
+            QueryRepo.Row row = write(level);
+            Response page = ResultFiles.serve(row, null, null, null, 3L, 4L, null);
+            assertEquals(String.valueOf(ROWS), page.getHeaderString("X-Total-Rows"));
+            assertEquals(expected(3, 7), body(page), "level " + level);
+
+            assertEquals(expected(8, ROWS), body(ResultFiles.serve(row, null, null, null, 8L, 100L, null)));
+            assertEquals("", body(ResultFiles.serve(row, null, null, null, 50L, null, null)));
+        }
+    }
+
+    @Test
+    void rejectsInvalidPages() throws IOException {
+        QueryRepo.Row row = write(0);
+        assertThrows(IllegalArgumentException.class, () -> ResultFiles.serve(row, null, null, null, -1L, null, null));
+        assertThrows(IllegalArgumentException.class, () -> ResultFiles.serve(row, null, null, null, 0L, 0L, null));
+        row.format = ResultFormat.COLUMNAR;
+        assertThrows(IllegalArgumentException.class, () -> ResultFiles.serve(row, null, null, null, 0L, 1L, null));
+    }
+
+    @Test
+    void sendsResultsLargerThanOneMappingChunkThroughJetty() throws Exception {
+        // Past the 64MB slices the first mapped version sent, one sendContent per slice
+        long size = 70L * 1024 * 1024 + 13;
+        File data = new File(dir, "q_big.ndjson");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(data), 1 << 20)) {
+            for (long i = 0; i < size; i++) out.write(pattern(i));
+        }
+        QueryRepo.Row row = new QueryRepo.Row();
+        row.id = "q_big";
+        row.resultPath = data.getAbsolutePath();
+        row.rowsWritten = 1L;
+        row.bytesWritten = size;
+        Download.row = row;
+
+        Server server = new Server(0);
+        ServletContextHandler context = new ServletContextHandler();
+        context.addServlet(new ServletHolder(new ServletContainer(new ResourceConfig(Download.class))), "/*");
+        server.setHandler(context);
+        server.start();
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            assertDownload(port, null, 200, 0, size);
+            assertDownload(port, "bytes=1000-", 206, 1000, size - 1000);
+            assertDownload(port, "bytes=5-" + (size - 2), 206, 5, size - 6);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Path("/")
+    public static class Download {
+        static volatile QueryRepo.Row row;
+
+        @GET
+        public Response get(@HeaderParam("Range") String range, @Context HttpServletResponse response) throws IOException {
+            return ResultFiles.serve(row, null, range, null, null, null, response);
+        }
+    }
+
+    private static void assertDownload(int port, String range, int status, long first, long length) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + port + "/").openConnection();
+        if (range != null) c.setRequestProperty("Range", range);
+        assertEquals(status, c.getResponseCode());
+        assertEquals(String.valueOf(length), c.getHeaderField("Content-Length"));
+        assertNotNull(c.getHeaderField("ETag"));
+        long pos = first;
+        byte[] buf = new byte[1 << 16];
+        try (InputStream in = c.getInputStream()) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != (byte) pattern(pos + i)) fail("byte " + (pos + i) + " differs");
+                }
+                pos += n;
+            }
+        }
+        assertEquals(first + length, pos);
+    }
+
+    private static int pattern(long i) {
+        return (int) ((i * 31 + (i >>> 20)) & 0xff);
+    }
+
+    // A finished NDJSON result of ROWS rows, with its row index
+    private QueryRepo.Row write(int gzipLevel) throws IOException {
+        File data = new File(dir, "q_" + gzipLevel + ".ndjson" + (gzipLevel > 0 ? ResultFiles.GZIP_SUFFIX : ""));
+        long raw;
+        try (ResultSink out = new ResultSink(data, RowIndex.fileFor(data.getAbsolutePath()), STRIDE, gzipLevel)) {
+            for (int i = 0; i < ROWS; i++) {
+                out.beginRow();
+                out.write(line(i).getBytes(StandardCharsets.UTF_8));
+            }
+            out.close();
+            raw = out.rawBytes();
+        }
+        QueryRepo.Row row = new QueryRepo.Row();
+        row.id = "q_" + gzipLevel;
+        row.resultPath = data.getAbsolutePath();
+        row.rowsWritten = (long) ROWS;
+        row.bytesWritten = raw;
+        return row;
+    }
+
+    private static String line(int i) {
+        return "{\"id\":" + i + ",\"name\":\"row " + i + "\"}\n";
+    }
+
+    private static String expected(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) sb.append(line(i));
+        return sb.toString();
+    }
+
+    private static String body(Response r) throws IOException {
+        Object entity = r.getEntity();
+        if (entity instanceof byte[]) return new String((byte[]) entity, StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) entity).write(out);
+        return out.toString("UTF-8");
+    }
+}
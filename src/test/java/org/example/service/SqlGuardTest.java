@@ -0,0 +1,123 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlGuardTest {
+    private final SqlGuard guard = new SqlGuard(10_000, 16);
+
+    @Test
+    void tokenizesLiteralsAndIdentifiersAsSingleTokens() {
+        List<SqlTokenizer.Token> t = SqlTokenizer.tokenize("SELECT 'a;b', E'it\\'s', $x$drop$x$, \"Delete\" FROM t");
+        assertEquals(SqlTokenizer.Kind.WORD, t.get(0).kind);
+        assertEquals("select", t.get(0).text);
+        assertEquals(SqlTokenizer.Kind.STRING, t.get(1).kind);
+        assertEquals("'a;b'", t.get(1).text);
+        assertEquals("E'it\\'s'", t.get(3).text);
+        assertEquals("$x$drop$x$", t.get(5).text);
+        assertEquals(SqlTokenizer.Kind.QUOTED, t.get(7).kind);
+        assertEquals("from", t.get(8).text);
+    }
+
+    @Test
+    void dropsCommentsIncludingNestedOnes() {
+        List<SqlTokenizer.Token> t = SqlTokenizer.tokenize("select /* a /* b */ c */ 1 -- drop\n");
+        assertEquals(2, t.size());
+        assertEquals("1", t.get(1).text);
+    }
+
+    @Test
+    void tokenEndsPointPastTheToken() {
+        String sql = "select a from t where x = ?";
+        for (SqlTokenizer.Token t : SqlTokenizer.tokenize(sql)) {
+            assertEquals(t.text, sql.substring(t.end - t.text.length(), t.end).toLowerCase());
+        }
+    }
+
+    @Test
+    void countsPlaceholders() {
+        assertEquals(2, guard.validate("select * from t where a = ? and b = '?' and c = ?").placeholders);
+    }
+
+    @Test
+    void rejectsUnterminatedLiteralsAndComments() {
+        assertThrows(IllegalArgumentException.class, () -> SqlTokenizer.tokenize("select 'abc"));
+        assertThrows(IllegalArgumentException.class, () -> SqlTokenizer.tokenize("select 1 /* x"));
+        assertThrows(IllegalArgumentException.class, () -> SqlTokenizer.tokenize("select $a$x"));
+    }
+
+    @Test
+    void allowsSelectAndWith() {
+        guard.validate("select 1");
+        guard.validate("  (select id from orders)  ");
+        guard.validate("with o as (select * from orders) select count(*) from o");
+    }
+
+    @Test
+    void keywordsInsideLiteralsAndCommentsDontCount() {
+        guard.validate("select 'drop table x; delete' as s /* insert */ from t -- update\n");
+        guard.validate("select \"update\" from t");
+    }
+
+    @Test
+    void rejectsWritesAndOtherStatements() {
+        assertRejected("only SELECT allowed", "update t set a = 1");
+        assertRejected("only SELECT allowed", "explain select 1");
+        assertRejected("keyword not allowed: into", "select * into copy_t from t");
+        assertRejected("keyword not allowed: delete", "with d as (delete from t returning *) select * from d");
+        assertRejected("multiple statements are not allowed", "select 1; select 2");
+        assertRejected("sql required", "   ");
+    }
+
+    @Test
+    void rejectsUnbalancedParentheses() {
+        assertRejected("unbalanced parentheses", "select 1) to stdout; --");
+        assertRejected("unbalanced parentheses", "select ((1)");
+        guard.validate("select ')' as p, f((1))");
+    }
+
+    @Test
+    void rejectsSqlOverTheLengthLimit() {
+        SqlGuard small = new SqlGuard(10, 16);
+        assertRejected(small, "sql too long", "select 1234567890");
+    }
+
+    @Test
+    void remembersVerdicts() {
+        assertRejected("only SELECT allowed", "drop table t");
+        assertRejected("only SELECT allowed", "drop table t");
+        assertEquals(guard.validate("select 1").hash, guard.validate("select 1").hash);
+    }
+
+    @Test
+    void fingerprintIgnoresCaseCommentsAndSpacing() {
+        SqlFingerprint a = guard.validate("SELECT *  FROM orders /* dashboard */ WHERE id = 1");
+        SqlFingerprint b = guard.validate("select * from orders where id = 1");
+        assertEquals(a.hash, b.hash);
+        assertNotEquals(a.hash, guard.validate("select * from orders where id = 2").hash);
+        assertNotEquals(a.hash, guard.validate("select * from orders where id = '1'").hash);
+    }
+
+    @Test
+    void volatileFunctionsMakeSqlNonDeterministic() {
+        assertTrue(guard.validate("select * from orders").deterministic);
+        assertFalse(guard.validate("select now(), * from orders").deterministic);
+        assertTrue(guard.validate("select 'now()' from orders").deterministic);
+    }
+
+    private void assertRejected(String message, String sql) {
+        assertRejected(guard, message, sql);
+    }
+
+    private static void assertRejected(SqlGuard g, String message, String sql) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> g.validate(sql));
+        assertEquals(message, e.getMessage());
+    }
+}
@@ -137,9 +137,13 @@ c=$(req_code POST "$BASE/queries" -H "$AUTH" -H "$CT" \
 must_code "$c" "400" "Multiple statements rejected"
 
 c=$(req_code POST "$BASE/queries" -H "$AUTH" -H "$CT" \
-  -d '{"sql":"select * from orders where status='\''drop'\''"}')
+  -d '{"sql":"select * into orders_copy from orders"}')
 must_code "$c" "400" "Forbidden keyword detected"
 
+c=$(req_code POST "$BASE/queries" -H "$AUTH" -H "$CT" \
+  -d '{"sql":"select * from orders where status='\''drop'\'' -- delete"}')
+must_code "$c" "200" "Keywords inside literals and comments ignored"
+
 echo
 echo "=================================================="
 echo "E) Happy path: submit -> poll -> fetch results"